@@ -1,13 +1,17 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.account;
 
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class Account {
 
     private final String username;
-    private String password;
+    private volatile String password;
     private final Wallet wallet;
-    private boolean isAdmin;
+    private volatile boolean isAdmin;
+    private volatile long version;
+    private final AtomicLong persistedVersion = new AtomicLong();
+    private static final AtomicLong VERSIONS = new AtomicLong();
     private static final String VALID_PASSWORD = "Password is valid";
     private static final String DELIMITER = ";";
 
@@ -20,6 +24,7 @@ public class Account {
         this.password = PasswordHasher.hashString(password);
         this.wallet = new Wallet();
         this.isAdmin = false;
+        this.version = nextVersion();
     }
 
     private Account(String username, String password, Wallet wallet, boolean isAdmin) {
@@ -53,10 +58,39 @@ public class Account {
 
     public void setPassword(String newPass) {
         this.password = newPass;
+        this.version = nextVersion();
     }
 
     public void changeAdminStatus() {
         isAdmin = !isAdmin;
+        version = nextVersion();
+    }
+
+    /**
+     * @return a version that grows with every change of the account or its wallet. Versions are
+     *     unique across all accounts, so a later change always has a greater version.
+     */
+    public long getVersion() {
+        return Math.max(version, wallet.getVersion());
+    }
+
+    /**
+     * @return true if the account or its wallet changed after the last persisted version
+     */
+    public boolean isDirty() {
+        return getVersion() > persistedVersion.get();
+    }
+
+    public void markDirty() {
+        version = nextVersion();
+    }
+
+    /**
+     * Marks the state up to the given version as persisted. Read the version before the state
+     * that is persisted, so a change made in between leaves the account dirty for the next flush.
+     */
+    public void markPersisted(long persisted) {
+        persistedVersion.accumulateAndGet(persisted, Math::max);
     }
 
     public boolean passwordsMatch(String password) {
@@ -67,6 +101,13 @@ public class Account {
         return PasswordHasher.checkpw(password, this.password);
     }
 
+    /**
+     * Creates an account from already parsed values, with the password already hashed
+     */
+    public static Account restore(String username, String hashedPassword, boolean isAdmin, Wallet wallet) {
+        return new Account(username, hashedPassword, wallet, isAdmin);
+    }
+
     public static Account fromCSV(String line) {
         String[] tokens = line.split(DELIMITER);
 
@@ -87,6 +128,10 @@ public class Account {
         return result.append(wallet.toCSV()).toString();
     }
 
+    static long nextVersion() {
+        return VERSIONS.incrementAndGet();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
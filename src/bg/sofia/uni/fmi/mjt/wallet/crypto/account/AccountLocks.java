@@ -0,0 +1,34 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.account;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks guarding accounts and their wallets. Everything that reads or changes an account
+ * in more than one step holds the lock of its username, so work on the same account is serialized
+ * while different accounts usually map to different stripes and proceed in parallel.
+ */
+public final class AccountLocks {
+
+    private static final int STRIPES = 256;
+    private static final Lock[] LOCKS = new Lock[STRIPES];
+
+    static {
+        for (int i = 0; i < STRIPES; i++) {
+            LOCKS[i] = new ReentrantLock();
+        }
+    }
+
+    private AccountLocks() {
+    }
+
+    public static Lock forUsername(String username) {
+        int hash = username.hashCode();
+
+        return LOCKS[(hash ^ (hash >>> 16)) & (STRIPES - 1)];
+    }
+
+    public static Lock forAccount(Account account) {
+        return forUsername(account.getUsername());
+    }
+}
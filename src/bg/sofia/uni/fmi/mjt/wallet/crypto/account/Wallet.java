@@ -4,27 +4,43 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * The wallet state is copy-on-write: every change publishes a new immutable {@link State}, so readers
+ * such as the persister get a consistent view without locking. Changes must be made under the
+ * account's lock, which keeps them from overwriting each other.
+ */
 public class Wallet {
     private static final int BALANCE_INDEX = 3;
     private static final int FIRST_CRYPTO_INDEX = 4;
     private static final int WALLET_FROM_CSV_STEP = 3;
     private static final String NEW_LINE = System.lineSeparator();
 
-    private double balance;
-    private Map<String, Double> totalDepositedInCrypto;
-    private Map<String, Double> cryptoMap;
+    private volatile State state;
+    private volatile long version;
     private static final String DELIMITER = ";";
 
+    public record State(double balance, Map<String, Double> cryptoInWallet,
+                        Map<String, Double> totalDepositedInCrypto) {
+        private State withBalance(double newBalance) {
+            return new State(newBalance, cryptoInWallet, totalDepositedInCrypto);
+        }
+    }
+
     public Wallet() {
-        this.balance = 0.0;
-        this.totalDepositedInCrypto = new HashMap<>();
-        this.cryptoMap = new HashMap<>();
+        this(0.0, new HashMap<>(), new HashMap<>());
     }
 
     private Wallet(double balance, Map<String, Double> totalDepositedInCrypto, Map<String, Double> cryptoMap) {
-        this.balance = balance;
-        this.totalDepositedInCrypto = totalDepositedInCrypto;
-        this.cryptoMap = cryptoMap;
+        this.state = new State(balance, Collections.unmodifiableMap(cryptoMap),
+            Collections.unmodifiableMap(totalDepositedInCrypto));
+    }
+
+    /**
+     * Creates a wallet from already parsed values, taking ownership of the maps
+     */
+    public static Wallet restore(double balance, Map<String, Double> cryptoInWallet,
+                                 Map<String, Double> totalDepositedInCrypto) {
+        return new Wallet(balance, totalDepositedInCrypto, cryptoInWallet);
     }
 
     public static Wallet fromCSV(String[] tokens) {
@@ -42,28 +58,36 @@ public class Wallet {
     }
 
     public String toCSV() {
+        State current = state;
         StringBuilder result = new StringBuilder();
 
-        result.append(DELIMITER).append(balance);
+        result.append(DELIMITER).append(current.balance());
 
-        for (var entry : cryptoMap.entrySet()) {
+        for (var entry : current.cryptoInWallet().entrySet()) {
             result.append(DELIMITER).append(entry.getKey()).append(DELIMITER).append(entry.getValue())
-                .append(DELIMITER).append(totalDepositedInCrypto.get(entry.getKey()));
+                .append(DELIMITER).append(current.totalDepositedInCrypto().get(entry.getKey()));
         }
 
         return result.toString();
     }
 
+    /**
+     * @return the current state, which stays unchanged while the wallet moves on
+     */
+    public State getState() {
+        return state;
+    }
+
     public double getBalance() {
-        return this.balance;
+        return state.balance();
     }
 
     public Map<String, Double> getTotalDepositedInCrypto() {
-        return Collections.unmodifiableMap(this.totalDepositedInCrypto);
+        return state.totalDepositedInCrypto();
     }
 
     public Map<String, Double> getCryptoInWallet() {
-        return Collections.unmodifiableMap(this.cryptoMap);
+        return state.cryptoInWallet();
     }
 
     public void depositMoney(double amount) {
@@ -71,37 +95,57 @@ public class Wallet {
             throw new IllegalArgumentException("Deposit amount must be bigger than zero");
         }
 
-        balance += amount;
+        publish(state.withBalance(state.balance() + amount));
     }
 
     public void buyCrypto(String cryptoCode, double money, double pricePerOne) {
-        balance -= money;
+        State current = state;
+        Map<String, Double> cryptoMap = new HashMap<>(current.cryptoInWallet());
+        Map<String, Double> totalDepositedInCrypto = new HashMap<>(current.totalDepositedInCrypto());
 
         cryptoMap.merge(cryptoCode,
             money / pricePerOne, Double::sum);
         totalDepositedInCrypto.merge(cryptoCode, money, Double::sum);
+
+        publish(new State(current.balance() - money, Collections.unmodifiableMap(cryptoMap),
+            Collections.unmodifiableMap(totalDepositedInCrypto)));
     }
 
     public double sellCrypto(String cryptoCode, double pricePerOne) {
-        double soldFor = cryptoMap.get(cryptoCode) * pricePerOne;
+        State current = state;
+        double soldFor = current.cryptoInWallet().get(cryptoCode) * pricePerOne;
 
-        balance += soldFor;
+        Map<String, Double> cryptoMap = new HashMap<>(current.cryptoInWallet());
+        Map<String, Double> totalDepositedInCrypto = new HashMap<>(current.totalDepositedInCrypto());
 
         cryptoMap.remove(cryptoCode);
         totalDepositedInCrypto.remove(cryptoCode);
 
+        publish(new State(current.balance() + soldFor, Collections.unmodifiableMap(cryptoMap),
+            Collections.unmodifiableMap(totalDepositedInCrypto)));
+
         return soldFor;
     }
 
     public String getWalletInformation() {
+        State current = state;
         StringBuilder result = new StringBuilder();
 
-        result.append("Current balance: ").append(String.format("%.2f", balance)).append(NEW_LINE);
+        result.append("Current balance: ").append(String.format("%.2f", current.balance())).append(NEW_LINE);
 
-        for (var entry : cryptoMap.entrySet()) {
+        for (var entry : current.cryptoInWallet().entrySet()) {
             result.append(String.format("%-6s %-10.2f", entry.getKey(), entry.getValue())).append(NEW_LINE);
         }
 
         return result.toString();
     }
-}
\ No newline at end of file
+
+    long getVersion() {
+        return version;
+    }
+
+    private void publish(State newState) {
+        state = newState;
+        version = Account.nextVersion();
+    }
+}
@@ -3,7 +3,10 @@ package bg.sofia.uni.fmi.mjt.wallet.crypto.client;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
 import java.nio.channels.SocketChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
@@ -15,7 +18,14 @@ public class CryptocurrencyWalletClient {
         "Disconnected successfully";
     private static final String SHUTTING_DOWN_MESSAGE =
         "Server was shut down";
+    private static final String CONNECTION_CLOSED_MESSAGE =
+        "Server closed the connection";
+    private static final char FRAME_DELIMITER = '\n';
     private static ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private static ByteBuffer replyLengthBuffer = ByteBuffer.allocate(Integer.BYTES);
+    private static CharBuffer replyChars = CharBuffer.allocate(BUFFER_SIZE);
+    private static CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private static CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
 
     public static void main(String[] args) {
         try (SocketChannel sc = SocketChannel.open();
@@ -47,20 +57,56 @@ public class CryptocurrencyWalletClient {
     }
 
     private static void sendMessageToServer(SocketChannel sc, String message) throws IOException {
-        buffer.clear();
-        buffer.put(message.getBytes());
-        buffer.flip();
-        sc.write(buffer);
+        CharBuffer messageChars = CharBuffer.wrap(message);
+
+        encoder.reset();
+        boolean isDelimited = false;
+        while (!isDelimited) {
+            buffer.clear();
+            boolean isEncoded = encoder.encode(messageChars, buffer, true).isUnderflow();
+            if (isEncoded && buffer.hasRemaining()) {
+                encoder.flush(buffer);
+                buffer.put((byte) FRAME_DELIMITER);
+                isDelimited = true;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                sc.write(buffer);
+            }
+        }
     }
 
     private static String handleServerResponse(SocketChannel sc) throws IOException {
+        replyLengthBuffer.clear();
+        readFully(sc, replyLengthBuffer);
+        replyLengthBuffer.flip();
+
+        int replyLength = replyLengthBuffer.getInt();
+        ByteBuffer replyBuffer = replyLength <= BUFFER_SIZE ? buffer : ByteBuffer.allocate(replyLength);
+
+        replyBuffer.clear();
+        replyBuffer.limit(replyLength);
+        readFully(sc, replyBuffer);
+        replyBuffer.flip();
 
-        buffer.clear();
-        sc.read(buffer);
-        buffer.flip();
+        if (replyChars.capacity() < replyLength) {
+            replyChars = CharBuffer.allocate(replyLength);
+        }
+
+        replyChars.clear();
+        decoder.reset();
+        decoder.decode(replyBuffer, replyChars, true);
+        decoder.flush(replyChars);
+        replyChars.flip();
+
+        return replyChars.toString();
+    }
 
-        byte[] byteArray = new byte[buffer.remaining()];
-        buffer.get(byteArray);
-        return new String(byteArray, StandardCharsets.UTF_8);
+    private static void readFully(SocketChannel sc, ByteBuffer target) throws IOException {
+        while (target.hasRemaining()) {
+            if (sc.read(target) < 0) {
+                throw new IOException(CONNECTION_CLOSED_MESSAGE);
+            }
+        }
     }
 }
@@ -0,0 +1,94 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reusable view of a command in the binary protocol: a one-byte opcode followed by the arguments
+ * of the command, encoded as described by {@link CommandType.Argument}. A frame whose arguments
+ * do not match the opcode is seen as an unknown command. The view is only valid until the
+ * underlying bytes are overwritten and is not thread-safe.
+ */
+public class BinaryCommandView implements CommandRequest {
+
+    private static final int MAX_ARGUMENT_COUNT = 2;
+    private static final int MAX_STRING_LENGTH = 0xFF;
+
+    private ByteBuffer frame;
+    private final int[] argumentOffsets;
+    private CommandType type;
+    private final byte[] scratch;
+
+    public BinaryCommandView() {
+        this.argumentOffsets = new int[MAX_ARGUMENT_COUNT];
+        this.scratch = new byte[MAX_STRING_LENGTH];
+        this.type = CommandType.UNKNOWN;
+    }
+
+    /**
+     * Reads the command stored in frame[start, end) without copying it.
+     *
+     * @return this view
+     */
+    public BinaryCommandView parse(ByteBuffer frame, int start, int end) {
+        this.frame = frame;
+        this.type = start < end ? CommandType.fromOpcode(frame.get(start)) : CommandType.UNKNOWN;
+
+        int position = start + 1;
+        for (int i = 0; i < type.getArgumentCount() && position <= end; i++) {
+            argumentOffsets[i] = position;
+            position += switch (type.getArgument(i)) {
+                case STRING -> position < end ? Byte.BYTES + Byte.toUnsignedInt(frame.get(position)) : Byte.BYTES;
+                case NUMBER -> Double.BYTES;
+            };
+        }
+
+        if (position != end) {
+            type = CommandType.UNKNOWN;
+        }
+
+        return this;
+    }
+
+    @Override
+    public CommandType type() {
+        return type;
+    }
+
+    @Override
+    public int argumentCount() {
+        return type.getArgumentCount();
+    }
+
+    @Override
+    public String argument(int index) {
+        int offset = argumentOffsets[checkedIndex(index)];
+
+        return switch (type.getArgument(index)) {
+            case STRING -> {
+                int length = Byte.toUnsignedInt(frame.get(offset));
+                frame.get(offset + Byte.BYTES, scratch, 0, length);
+                yield new String(scratch, 0, length, StandardCharsets.UTF_8);
+            }
+            case NUMBER -> String.valueOf(frame.getDouble(offset));
+        };
+    }
+
+    @Override
+    public double numericArgument(int index) {
+        int offset = argumentOffsets[checkedIndex(index)];
+
+        return switch (type.getArgument(index)) {
+            case STRING -> Double.parseDouble(argument(index));
+            case NUMBER -> frame.getDouble(offset);
+        };
+    }
+
+    private int checkedIndex(int index) {
+        if (index < 0 || index >= argumentCount()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return index;
+    }
+}
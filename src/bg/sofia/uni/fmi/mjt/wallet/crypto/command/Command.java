@@ -1,6 +1,31 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
 
-public record Command(String command, String... arguments) {
+public record Command(String command, String... arguments) implements CommandRequest {
+
+    @Override
+    public CommandType type() {
+        return CommandType.fromName(command);
+    }
+
+    @Override
+    public int argumentCount() {
+        return arguments.length;
+    }
+
+    @Override
+    public String argument(int index) {
+        return arguments[index];
+    }
+
+    @Override
+    public double numericArgument(int index) {
+        return Double.parseDouble(arguments[index]);
+    }
+
+    @Override
+    public Command toCommand() {
+        return this;
+    }
 
     @Override
     public String toString() {
@@ -4,20 +4,21 @@ import java.util.ArrayList;
 import java.util.List;
 
 public class CommandCreator {
-    public static Command newCommand(String clientInput) {
+    public static Command newCommand(CharSequence clientInput) {
         List<String> tokens = CommandCreator.getCommandArguments(clientInput);
         String[] args = tokens.subList(1, tokens.size()).toArray(new String[0]);
 
         return new Command(tokens.get(0), args);
     }
 
-    private static List<String> getCommandArguments(String input) {
+    private static List<String> getCommandArguments(CharSequence input) {
         List<String> tokens = new ArrayList<>();
         StringBuilder sb = new StringBuilder();
 
         boolean insideQuote = false;
 
-        for (char c : input.toCharArray()) {
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
             if (c == '"') {
                 insideQuote = !insideQuote;
             }
@@ -1,19 +1,29 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
 
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.AccountLocks;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.PasswordChecker;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Wallet;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.AccountChange;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.AccountStore;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.database.Database;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.FailedRequestException;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.StalePricesException;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.response.ApiCall;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.response.PriceSnapshot;
 
 import java.net.http.HttpClient;
 import java.nio.channels.SelectionKey;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.util.HashSet;
-import java.util.Map;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
 
 public class CommandExecutor {
     private static final String OUTPUT_DIRECTORY = "database";
@@ -21,45 +31,59 @@ public class CommandExecutor {
     private static final String LOG_PATH = "server.log";
     private static final Path FILE_PATH = Paths.get(OUTPUT_DIRECTORY, DATABASE_FILE_NAME);
 
-    private Set<Account> accounts = new HashSet<>();
     private ApiCall apiCall;
     private Database database;
     private ServerLogger logger;
-    private static Set<Account> currentlyUsedAccounts = new HashSet<>();
+    private static Set<Account> currentlyUsedAccounts = ConcurrentHashMap.newKeySet();
 
     public CommandExecutor(String apiKey) {
         this.database = new Database(FILE_PATH);
         this.logger = new ServerLogger(LOG_PATH);
-        this.accounts.addAll(database.getDatabase());
-        this.apiCall = new ApiCall(HttpClient.newBuilder().build(), apiKey);
+        this.apiCall = new ApiCall(HttpClient.newBuilder().build(), apiKey, logger);
     }
 
     public CommandExecutor(String apiKey, Database database, ApiCall apiCall) {
         this.database = database;
-        this.accounts.addAll(database.getDatabase());
         this.apiCall = apiCall;
     }
 
-    public String execute(Command command, SelectionKey key) {
-        return switch (command.command()) {
-            case HELP -> help();
-            case LOGIN -> login(command.arguments(), key);
-            case REGISTER -> register(command.arguments(), key);
-            case DISCONNECT -> disconnect(key);
-            case DEPOSIT_MONEY -> depositMoney(command.arguments(), key);
+    public String execute(CommandRequest command, SelectionKey key) {
+        return process(command, key).toText();
+    }
+
+    public CommandResult process(CommandRequest command, SelectionKey key) {
+        return switch (command.type()) {
+            case HELP -> message(help());
+            case LOGIN -> message(login(command, key));
+            case REGISTER -> message(register(command, key));
+            case DISCONNECT -> message(disconnect(key));
+            case DEPOSIT_MONEY -> message(depositMoney(command, key));
             case LIST_OFFERINGS -> listOfferings(key);
-            case BUY -> buy(command.arguments(), key);
-            case SELL -> sell(command.arguments(), key);
-            case CHANGE_PASSWORD -> changePassword(command.arguments(), key);
+            case BUY -> buy(command, key);
+            case SELL -> sell(command, key);
+            case CHANGE_PASSWORD -> message(changePassword(command, key));
             case GET_WALLET_SUMMARY -> getWalletSummary(key);
             case GET_WALLET_OVERALL_SUMMARY -> getWalletOverallSummary(key);
-            case LOGOUT -> logout(key);
-            case SHUTDOWN -> shutdown(key);
-            case MAKE_ADMIN -> makeAdmin(command.arguments(), key);
-            default -> UNKNOWN_COMMAND;
+            case LOGOUT -> message(logout(key));
+            case SHUTDOWN -> message(shutdown(key));
+            case MAKE_ADMIN -> message(makeAdmin(command, key));
+            case UNKNOWN -> message(UNKNOWN_COMMAND);
         };
     }
 
+    /**
+     * Tells whether executing the command may wait on the network or the disk, namely requesting prices
+     * from the API, reading an account that is not cached from the account files, as logging in does,
+     * or waiting for a change to be forced to disk.
+     */
+    public boolean mayBlock(CommandRequest command) {
+        return BLOCKING_COMMANDS.contains(command.type());
+    }
+
+    private static CommandResult message(String text) {
+        return new CommandResult.Message(text);
+    }
+
     private String help() {
         StringBuilder result = new StringBuilder();
 
@@ -86,264 +110,309 @@ public class CommandExecutor {
         return result.toString();
     }
 
-    private String register(String[] accountData, SelectionKey key) {
+    private String register(CommandRequest command, SelectionKey key) {
         if (key.attachment() != null) {
             return ALREADY_LOGGED_IN_MESSAGE;
         }
-        if (accountData.length != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
+        if (command.argumentCount() != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
             return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, REGISTER, 2, REGISTER + HELP_REGISTER_MESSAGE);
         }
 
-        String username = accountData[0];
-        String password = accountData[1];
-        Account current = findAccount(username);
-
-        if (database.getDatabase().contains(current)) {
-            return ACCOUNT_WITH_SUCH_USERNAME_ALREADY_EXISTS;
-        }
+        String username = command.argument(0);
+        String password = command.argument(1);
 
         String validPassword = PasswordChecker.validatePassword(password);
-        if (!validPassword.isBlank()) {
-            return validPassword;
-        }
-        Account newAccount = Account.register(username, password);
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forUsername(username);
+        lock.lock();
+        try {
+            AccountStore accountStore = database.getAccountStore();
 
-        if (database.getDatabase().isEmpty()) {
-            newAccount.changeAdminStatus();
+            if (accountStore.find(username) != null) {
+                return ACCOUNT_WITH_SUCH_USERNAME_ALREADY_EXISTS;
+            }
+            if (!validPassword.isBlank()) {
+                return validPassword;
+            }
+            Account newAccount = Account.register(username, password);
+
+            if (accountStore.isEmpty()) {
+                newAccount.changeAdminStatus();
+            }
+            accountStore.putIfAbsent(newAccount);
+            commit = database.recordChange(AccountChange.REGISTER, newAccount);
+        } finally {
+            lock.unlock();
         }
-        accounts.add(newAccount);
-        database.updateData(accounts);
+
+        commit.join();
 
         return REGISTERED_SUCCESSFULLY;
     }
 
-    private String login(String[] accountData, SelectionKey key) {
-        if (accountData.length != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
+    private String login(CommandRequest command, SelectionKey key) {
+        if (command.argumentCount() != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
             return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, LOGIN, 2, LOGIN + HELP_LOGIN_MESSAGE);
         }
         if (key.attachment() != null) {
             return ALREADY_LOGGED_IN_MESSAGE;
         }
 
-        String username = accountData[0];
-        String password = accountData[1];
-
-        Account current = findAccount(username);
+        String username = command.argument(0);
+        String password = command.argument(1);
 
-        if (!database.getDatabase().contains(current)) {
-            return ACCOUNT_DOES_NOT_EXIST_MESSAGE;
-        }
-        if (currentlyUsedAccounts.contains(current)) {
-            return ACCOUNT_ALREADY_IN_USAGE;
-        }
-        if (!current.passwordsMatch(password)) {
-            return WRONG_PASSWORD_MESSAGE;
-        }
+        Account current;
 
-        key.attach(current);
-        currentlyUsedAccounts.add(current);
+        Lock lock = AccountLocks.forUsername(username);
+        lock.lock();
+        try {
+            current = database.getAccountStore().find(username);
 
-        return LOGGED_IN_SUCCESSFULLY;
-    }
+            if (current == null) {
+                return ACCOUNT_DOES_NOT_EXIST_MESSAGE;
+            }
+            if (currentlyUsedAccounts.contains(current)) {
+                return ACCOUNT_ALREADY_IN_USAGE;
+            }
+            if (!current.passwordsMatch(password)) {
+                return WRONG_PASSWORD_MESSAGE;
+            }
+            if (!currentlyUsedAccounts.add(current)) {
+                return ACCOUNT_ALREADY_IN_USAGE;
+            }
 
-    private Account findAccount(String username) {
-        if (username == null) {
-            return null;
+            database.getAccountStore().pin(current);
+        } finally {
+            lock.unlock();
         }
 
-        for (Account acc : database.getDatabase()) {
-            if (username.equals(acc.getUsername())) {
-                return acc;
-            }
-        }
+        key.attach(current);
+        apiCall.track(current.getWallet().getState().cryptoInWallet().keySet());
 
-        return null;
+        return LOGGED_IN_SUCCESSFULLY;
     }
 
-    private String depositMoney(String[] moneyDeposit, SelectionKey key) {
+    private String depositMoney(CommandRequest command, SelectionKey key) {
         if (key.attachment() == null) {
             return NOT_LOGGED_IN_MESSAGE;
         }
-        if (moneyDeposit.length != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
+        if (command.argumentCount() != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
             return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, DEPOSIT_MONEY, 1,
                 DEPOSIT_MONEY + HELP_DEPOSIT_MONEY_MESSAGE);
         }
 
         Account current = (Account) key.attachment();
-        double amount = Double.parseDouble(moneyDeposit[0]);
+        double amount = command.numericArgument(0);
 
-        current.getWallet().depositMoney(amount);
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forAccount(current);
+        lock.lock();
+        try {
+            current.getWallet().depositMoney(amount);
+            commit = database.recordChange(AccountChange.DEPOSIT, current);
+        } finally {
+            lock.unlock();
+        }
+
+        commit.join();
 
         return DEPOSITED_SUCCESSFULLY;
     }
 
-    private String listOfferings(SelectionKey key) {
+    private CommandResult listOfferings(SelectionKey key) {
         if (key.attachment() == null) {
-            return NOT_LOGGED_IN_MESSAGE;
+            return message(NOT_LOGGED_IN_MESSAGE);
         }
 
-        StringBuilder result = new StringBuilder();
-
         try {
-            Map<String, Double> map = apiCall.getMarketChart();
-            for (var entry : map.entrySet()) {
-                result.append(String.format("%-6s %10.4f", entry.getKey(), entry.getValue())).append(NEW_LINE);
-            }
-
+            return new CommandResult.Offerings(apiCall.getMarketChart().toMap());
         } catch (FailedRequestException e) {
             logger.logError(FAILED_REQUEST_MESSAGE, e.getStackTrace());
-            return FAILED_REQUEST_MESSAGE;
+            return message(FAILED_REQUEST_MESSAGE);
         }
-
-        return result.toString();
     }
 
-    private String buy(String[] buyData, SelectionKey key) {
+    private CommandResult buy(CommandRequest command, SelectionKey key) {
         if (key.attachment() == null) {
-            return NOT_LOGGED_IN_MESSAGE;
+            return message(NOT_LOGGED_IN_MESSAGE);
         }
-        if (buyData.length != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
-            return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, BUY, 2, BUY + HELP_BUY_MESSAGE);
+        if (command.argumentCount() != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
+            return message(String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, BUY, 2, BUY + HELP_BUY_MESSAGE));
         }
 
-        String cryptoCode = buyData[0];
-        Double moneyAmount = Double.parseDouble(buyData[1]);
-        Map<String, Double> marketChart;
+        String cryptoCode = command.argument(0);
+        double moneyAmount = command.numericArgument(1);
+        PriceSnapshot marketChart;
 
         if (moneyAmount <= 0) {
-            return INVALID_MONEY_AMOUNT;
+            return message(INVALID_MONEY_AMOUNT);
         }
 
         try {
-            marketChart = apiCall.getMarketChart();
+            marketChart = apiCall.getTradingPrices(List.of(cryptoCode));
+        } catch (StalePricesException e) {
+            return message(e.getMessage());
         } catch (FailedRequestException e) {
-            return FAILED_REQUEST_MESSAGE;
+            return message(FAILED_REQUEST_MESSAGE);
         }
 
-        if (!marketChart.containsKey(cryptoCode)) {
-            return ASSET_DOES_NOT_EXIST;
+        double pricePerOne = marketChart.priceOf(cryptoCode);
+        if (Double.isNaN(pricePerOne)) {
+            return message(ASSET_DOES_NOT_EXIST);
         }
 
         Account current = (Account) key.attachment();
 
-        if (!(Double.compare(moneyAmount, current.getWallet().getBalance()) < 1)) {
-            return INSUFFICIENT_BALANCE_MESSAGE;
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forAccount(current);
+        lock.lock();
+        try {
+            if (!(Double.compare(moneyAmount, current.getWallet().getBalance()) < 1)) {
+                return message(INSUFFICIENT_BALANCE_MESSAGE);
+            }
+
+            current.getWallet().buyCrypto(cryptoCode, moneyAmount, pricePerOne);
+            database.getAccountStore().reindex(current);
+            commit = database.recordChange(AccountChange.BUY, current);
+        } finally {
+            lock.unlock();
         }
 
-        double pricePerOne = marketChart.get(cryptoCode);
-        current.getWallet().buyCrypto(cryptoCode, moneyAmount, pricePerOne);
+        commit.join();
 
-        return String.format(ASSET_PURCHASED_SUCCESSFULLY, cryptoCode, moneyAmount);
+        return new CommandResult.Trade(true, cryptoCode, moneyAmount);
     }
 
-    private String sell(String[] sellData, SelectionKey key) {
+    private CommandResult sell(CommandRequest command, SelectionKey key) {
         if (key.attachment() == null) {
-            return NOT_LOGGED_IN_MESSAGE;
+            return message(NOT_LOGGED_IN_MESSAGE);
         }
-        if (sellData.length != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
-            return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, SELL, 1, SELL + HELP_SELL_MESSAGE);
+        if (command.argumentCount() != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
+            return message(String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, SELL, 1, SELL + HELP_SELL_MESSAGE));
         }
 
-        String cryptoCode = sellData[0];
-        Map<String, Double> marketChart;
+        String cryptoCode = command.argument(0);
+        PriceSnapshot marketChart;
 
         try {
-            marketChart = apiCall.getMarketChart();
+            marketChart = apiCall.getTradingPrices(List.of(cryptoCode));
+        } catch (StalePricesException e) {
+            return message(e.getMessage());
         } catch (FailedRequestException e) {
-            return FAILED_REQUEST_MESSAGE;
+            return message(FAILED_REQUEST_MESSAGE);
         }
 
         Account current = (Account) key.attachment();
-        if (!marketChart.containsKey(cryptoCode)) {
-            return ASSET_DOES_NOT_EXIST;
+        double pricePerOne = marketChart.priceOf(cryptoCode);
+        if (Double.isNaN(pricePerOne)) {
+            return message(ASSET_DOES_NOT_EXIST);
         }
-        if (!current.getWallet().getCryptoInWallet().containsKey(cryptoCode)) {
-            return ASSET_NOT_IN_POSSESSION;
+        double soldFor;
+
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forAccount(current);
+        lock.lock();
+        try {
+            if (!current.getWallet().getCryptoInWallet().containsKey(cryptoCode)) {
+                return message(ASSET_NOT_IN_POSSESSION);
+            }
+
+            soldFor = current.getWallet().sellCrypto(cryptoCode, pricePerOne);
+            database.getAccountStore().reindex(current);
+            commit = database.recordChange(AccountChange.SELL, current);
+        } finally {
+            lock.unlock();
         }
 
-        double pricePerOne = marketChart.get(cryptoCode);
-        double soldFor = current.getWallet().sellCrypto(cryptoCode, pricePerOne);
+        commit.join();
 
-        return String.format(ASSET_SOLD_SUCCESSFULLY, cryptoCode, soldFor);
+        return new CommandResult.Trade(false, cryptoCode, soldFor);
     }
 
-    private String changePassword(String[] changePassData, SelectionKey key) {
+    private String changePassword(CommandRequest command, SelectionKey key) {
         if (key.attachment() == null) {
             return NOT_LOGGED_IN_MESSAGE;
         }
-        if (changePassData.length != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
+        if (command.argumentCount() != NUMBER_OF_ARGS_BUY_LOGIN_REGISTER_CHANGE) {
             return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, CHANGE_PASSWORD, 2, HELP_CHANGE_PASSWORD_MESSAGE);
         }
 
-        String oldPass = changePassData[0];
-        String newPass = changePassData[1];
+        String oldPass = command.argument(0);
+        String newPass = command.argument(1);
 
         Account current = (Account) key.attachment();
 
-        if (!current.passwordsMatch(oldPass)) {
-            return WRONG_PASSWORD_MESSAGE;
-        }
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forAccount(current);
+        lock.lock();
+        try {
+            if (!current.passwordsMatch(oldPass)) {
+                return WRONG_PASSWORD_MESSAGE;
+            }
 
-        String validPassword = PasswordChecker.validatePassword(newPass);
-        if (!validPassword.isBlank()) {
-            return validPassword;
-        }
+            String validPassword = PasswordChecker.validatePassword(newPass);
+            if (!validPassword.isBlank()) {
+                return validPassword;
+            }
+
+            if (current.passwordsMatch(newPass)) {
+                return SAME_PASSWORD_MESSAGE;
+            }
 
-        if (current.passwordsMatch(newPass)) {
-            return SAME_PASSWORD_MESSAGE;
+            current.setPassword(newPass);
+            commit = database.recordChange(AccountChange.PASSWORD_CHANGE, current);
+        } finally {
+            lock.unlock();
         }
 
-        current.setPassword(newPass);
+        commit.join();
 
         return PASSWORD_CHANGED_SUCCESSFULLY;
     }
 
-    private String getWalletSummary(SelectionKey key) {
+    private CommandResult getWalletSummary(SelectionKey key) {
         if (key.attachment() == null) {
-            return NOT_LOGGED_IN_MESSAGE;
+            return message(NOT_LOGGED_IN_MESSAGE);
         }
 
-        Account current = (Account) key.attachment();
+        Wallet.State wallet = ((Account) key.attachment()).getWallet().getState();
 
-        return current.getWallet().getWalletInformation().trim();
+        return new CommandResult.WalletSummary(wallet.balance(), new LinkedHashMap<>(wallet.cryptoInWallet()));
     }
 
-    private String getWalletOverallSummary(SelectionKey key) {
+    private CommandResult getWalletOverallSummary(SelectionKey key) {
         if (key.attachment() == null) {
-            return NOT_LOGGED_IN_MESSAGE;
+            return message(NOT_LOGGED_IN_MESSAGE);
         }
 
         Account current = (Account) key.attachment();
-
-        double currentAccountBalance = current.getWallet().getBalance();
-        Map<String, Double> currentAccountTotalDeposited = current.getWallet().getTotalDepositedInCrypto();
-        Map<String, Double> currentAccountCryptoMap = current.getWallet().getCryptoInWallet();
-
-        double moneyInCrypto = 0.0;
-        double moneyDepositedInCrypto = 0.0;
-        Map<String, Double> marketChart;
+        Wallet.State wallet = current.getWallet().getState();
+        PriceSnapshot marketChart;
 
         try {
-            marketChart = apiCall.getMarketChart();
+            marketChart = apiCall.getPrices(wallet.cryptoInWallet().keySet());
         } catch (FailedRequestException e) {
-            return FAILED_REQUEST_MESSAGE;
+            return message(FAILED_REQUEST_MESSAGE);
         }
 
-        for (var entry : currentAccountCryptoMap.entrySet()) {
-            moneyInCrypto += (marketChart.get(entry.getKey()) * (entry.getValue()));
+        double currentAccountBalance = wallet.balance();
+        double moneyInCrypto = 0.0;
+        double moneyDepositedInCrypto = 0.0;
+
+        for (var entry : wallet.cryptoInWallet().entrySet()) {
+            double pricePerOne = marketChart.priceOf(entry.getKey());
+            if (!Double.isNaN(pricePerOne)) {
+                moneyInCrypto += pricePerOne * entry.getValue();
+            }
         }
 
-        for (var entry : currentAccountTotalDeposited.entrySet()) {
+        for (var entry : wallet.totalDepositedInCrypto().entrySet()) {
             moneyDepositedInCrypto += entry.getValue();
         }
 
-        StringBuilder result = new StringBuilder();
-
         double totalWinnings = currentAccountBalance - moneyDepositedInCrypto + moneyInCrypto;
 
-        result.append("Total winnings/losses: ").append(String.format("%.2f", totalWinnings)).append(NEW_LINE);
-
-        return result.toString().trim();
+        return new CommandResult.OverallSummary(totalWinnings);
     }
 
     private String logout(SelectionKey key) {
@@ -351,7 +420,9 @@ public class CommandExecutor {
             return NOT_LOGGED_IN_MESSAGE;
         }
 
-        currentlyUsedAccounts.remove((Account) key.attachment());
+        Account account = (Account) key.attachment();
+        currentlyUsedAccounts.remove(account);
+        database.getAccountStore().unpin(account);
         key.attach(null);
 
         return LOGGED_OUT_SUCCESSFULLY;
@@ -364,33 +435,46 @@ public class CommandExecutor {
 
         Account account = (Account) key.attachment();
         currentlyUsedAccounts.remove(account);
+        database.getAccountStore().unpin(account);
         key.attach(null);
 
         return disconnect(key);
     }
 
-    private String makeAdmin(String[] makeAdminData, SelectionKey key) {
+    private String makeAdmin(CommandRequest command, SelectionKey key) {
         if (key.attachment() == null) {
             return NOT_LOGGED_IN_MESSAGE;
         }
-        if (makeAdminData.length != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
+        if (command.argumentCount() != NUMBER_OF_ARGS_DEPOSIT_SELL_ADMIN) {
             return String.format(INVALID_ARGS_COUNT_MESSAGE_FORMAT, MAKE_ADMIN, 1, HELP_MAKE_ADMIN_MESSAGE);
         }
 
-        String username = makeAdminData[0];
-        Account toMakeAdmin = findAccount(username);
+        String username = command.argument(0);
 
-        if (toMakeAdmin == null) {
-            return ACCOUNT_DOES_NOT_EXIST_MESSAGE;
-        }
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forUsername(username);
+        lock.lock();
+        try {
+            Account toMakeAdmin = database.getAccountStore().find(username);
 
-        Account current = (Account) key.attachment();
+            if (toMakeAdmin == null) {
+                return ACCOUNT_DOES_NOT_EXIST_MESSAGE;
+            }
 
-        if (!current.getAdminStatus()) {
-            return NOT_AN_ADMIN_ACCOUNT_MESSAGE;
+            Account current = (Account) key.attachment();
+
+            if (!current.getAdminStatus()) {
+                return NOT_AN_ADMIN_ACCOUNT_MESSAGE;
+            }
+
+            toMakeAdmin.changeAdminStatus();
+            database.getAccountStore().reindex(toMakeAdmin);
+            commit = database.recordChange(AccountChange.ADMIN_CHANGE, toMakeAdmin);
+        } finally {
+            lock.unlock();
         }
 
-        toMakeAdmin.changeAdminStatus();
+        commit.join();
 
         return MADE_ADMIN_SUCCESSFULLY;
     }
@@ -407,7 +491,7 @@ public class CommandExecutor {
         }
 
         apiCall.shutdownScheduler();
-        database.shutdownScheduler(accounts);
+        database.shutdownScheduler(Set.of());
 
         return SHUTTING_DOWN_MESSAGE;
     }
@@ -427,6 +511,10 @@ public class CommandExecutor {
     private static final String SHUTDOWN = "shutdown";
     private static final String MAKE_ADMIN = "make-admin";
     private static final String UNKNOWN_COMMAND = "Unknown command";
+    private static final Set<CommandType> BLOCKING_COMMANDS = EnumSet.of(CommandType.LOGIN, CommandType.REGISTER,
+        CommandType.DEPOSIT_MONEY, CommandType.LIST_OFFERINGS, CommandType.BUY, CommandType.SELL,
+        CommandType.CHANGE_PASSWORD, CommandType.GET_WALLET_OVERALL_SUMMARY, CommandType.SHUTDOWN,
+        CommandType.MAKE_ADMIN);
     private static final String HELP_MESSAGE_COMMANDS = "LIST OF COMMANDS:";
     private static final String HELP_LOGIN_MESSAGE = " <username> <password>: logs in with existing account";
     private static final String HELP_LOGOUT_MESSAGE = " : logs out of account";
@@ -501,10 +589,6 @@ public class CommandExecutor {
         "Deposited successfully";
     private static final String REGISTERED_SUCCESSFULLY =
         "Registered successfully";
-    private static final String ASSET_PURCHASED_SUCCESSFULLY =
-        "Successfully purchased \"%s\" for \"%s\" dollars";
-    private static final String ASSET_SOLD_SUCCESSFULLY =
-        "Successfully sold \"%s\" for \"%s\" dollars";
     private static final String PASSWORD_CHANGED_SUCCESSFULLY =
         "Successfully changed password";
     private static final String NOT_YET_IMPLEMENTED =
@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+public interface CommandRequest {
+
+    /**
+     * @return the type of the command, UNKNOWN if the name is not recognised
+     */
+    CommandType type();
+
+    /**
+     * @return the number of arguments following the command name
+     */
+    int argumentCount();
+
+    /**
+     * @param index zero-based index of the argument
+     * @return the argument as a string
+     */
+    String argument(int index);
+
+    /**
+     * @param index zero-based index of the argument
+     * @return the argument parsed as a number
+     * @throws NumberFormatException if the argument is not a number
+     */
+    double numericArgument(int index);
+
+    /**
+     * Copies the request into a standalone command that does not depend on any reused buffer.
+     */
+    default Command toCommand() {
+        String[] arguments = new String[argumentCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = argument(i);
+        }
+
+        return new Command(type().getName(), arguments);
+    }
+}
@@ -0,0 +1,69 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+import java.util.Map;
+
+/**
+ * Outcome of executing a command. Text clients receive {@link #toText()},
+ * binary clients receive the fields as a binary record.
+ */
+public sealed interface CommandResult {
+
+    String NEW_LINE = System.lineSeparator();
+
+    String toText();
+
+    record Message(String text) implements CommandResult {
+
+        @Override
+        public String toText() {
+            return text;
+        }
+    }
+
+    record Offerings(Map<String, Double> prices) implements CommandResult {
+
+        @Override
+        public String toText() {
+            StringBuilder result = new StringBuilder();
+
+            for (var entry : prices.entrySet()) {
+                result.append(String.format("%-6s %10.4f", entry.getKey(), entry.getValue())).append(NEW_LINE);
+            }
+
+            return result.toString();
+        }
+    }
+
+    record WalletSummary(double balance, Map<String, Double> holdings) implements CommandResult {
+
+        @Override
+        public String toText() {
+            StringBuilder result = new StringBuilder();
+
+            result.append("Current balance: ").append(String.format("%.2f", balance));
+
+            for (var entry : holdings.entrySet()) {
+                result.append(NEW_LINE).append(String.format("%-6s %-10.2f", entry.getKey(), entry.getValue()));
+            }
+
+            return result.toString().trim();
+        }
+    }
+
+    record OverallSummary(double totalWinnings) implements CommandResult {
+
+        @Override
+        public String toText() {
+            return "Total winnings/losses: " + String.format("%.2f", totalWinnings);
+        }
+    }
+
+    record Trade(boolean isPurchase, String assetId, double amount) implements CommandResult {
+
+        @Override
+        public String toText() {
+            return String.format(isPurchase ? "Successfully purchased \"%s\" for \"%s\" dollars"
+                : "Successfully sold \"%s\" for \"%s\" dollars", assetId, amount);
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public enum CommandType {
+    HELP("help", 0x01),
+    REGISTER("register", 0x02, Argument.STRING, Argument.STRING),
+    LOGIN("login", 0x03, Argument.STRING, Argument.STRING),
+    LOGOUT("logout", 0x04),
+    DISCONNECT("disconnect", 0x05),
+    DEPOSIT_MONEY("deposit-money", 0x06, Argument.NUMBER),
+    LIST_OFFERINGS("list-offerings", 0x07),
+    BUY("buy", 0x08, Argument.STRING, Argument.NUMBER),
+    SELL("sell", 0x09, Argument.STRING),
+    CHANGE_PASSWORD("change-password", 0x0A, Argument.STRING, Argument.STRING),
+    GET_WALLET_SUMMARY("get-wallet-summary", 0x0B),
+    GET_WALLET_OVERALL_SUMMARY("get-wallet-overall-summary", 0x0C),
+    SHUTDOWN("shutdown", 0x0D),
+    MAKE_ADMIN("make-admin", 0x0E, Argument.STRING),
+    UNKNOWN("", 0x00);
+
+    /**
+     * Encoding of an argument in the binary protocol: strings are a one-byte length followed
+     * by UTF-8 bytes, numbers are eight-byte big-endian doubles.
+     */
+    public enum Argument {
+        STRING,
+        NUMBER
+    }
+
+    private static final CommandType[] KNOWN_TYPES = values();
+
+    private final String name;
+    private final byte[] nameBytes;
+    private final byte opcode;
+    private final Argument[] arguments;
+
+    CommandType(String name, int opcode, Argument... arguments) {
+        this.name = name;
+        this.nameBytes = name.getBytes(StandardCharsets.US_ASCII);
+        this.opcode = (byte) opcode;
+        this.arguments = arguments;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public byte getOpcode() {
+        return opcode;
+    }
+
+    public int getArgumentCount() {
+        return arguments.length;
+    }
+
+    public Argument getArgument(int index) {
+        return arguments[index];
+    }
+
+    public static CommandType fromOpcode(byte opcode) {
+        for (CommandType type : KNOWN_TYPES) {
+            if (type != UNKNOWN && type.opcode == opcode) {
+                return type;
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    public static CommandType fromName(CharSequence name) {
+        for (CommandType type : KNOWN_TYPES) {
+            if (type != UNKNOWN && type.name.contentEquals(name)) {
+                return type;
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    /**
+     * Resolves the command name stored in buffer[start, end) without decoding it to a string.
+     */
+    public static CommandType fromBytes(ByteBuffer buffer, int start, int end) {
+        for (CommandType type : KNOWN_TYPES) {
+            if (type != UNKNOWN && type.matches(buffer, start, end)) {
+                return type;
+            }
+        }
+
+        return UNKNOWN;
+    }
+
+    private boolean matches(ByteBuffer buffer, int start, int end) {
+        if (end - start != nameBytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < nameBytes.length; i++) {
+            if (buffer.get(start + i) != nameBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,173 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable view of a command whose tokens live in the bytes of a frame. Parsing tokenizes the frame
+ * in place with the same quote handling as {@link CommandCreator}, resolves the command name to a
+ * {@link CommandType} and parses numbers straight from the bytes, so the hot path allocates nothing.
+ * The view is only valid until the underlying bytes are overwritten and is not thread-safe.
+ */
+public class CommandView implements CommandRequest {
+
+    private static final byte QUOTE = '"';
+    private static final byte SPACE = ' ';
+    private static final int INITIAL_TOKEN_COUNT = 8;
+    private static final int INITIAL_SCRATCH_SIZE = 64;
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private ByteBuffer frame;
+    private int[] tokenStarts;
+    private int[] tokenEnds;
+    private int tokenCount;
+    private CommandType type;
+    private byte[] scratch;
+
+    public CommandView() {
+        this.tokenStarts = new int[INITIAL_TOKEN_COUNT];
+        this.tokenEnds = new int[INITIAL_TOKEN_COUNT];
+        this.scratch = new byte[INITIAL_SCRATCH_SIZE];
+        this.type = CommandType.UNKNOWN;
+    }
+
+    /**
+     * Tokenizes frame[start, end) in place, dropping the quotes and the separating spaces.
+     * The bytes in that range are overwritten.
+     *
+     * @return this view
+     */
+    public CommandView parse(ByteBuffer frame, int start, int end) {
+        this.frame = frame;
+        this.tokenCount = 0;
+
+        int write = start;
+        int tokenStart = start;
+        boolean insideQuote = false;
+
+        for (int read = start; read < end; read++) {
+            byte current = frame.get(read);
+            if (current == QUOTE) {
+                insideQuote = !insideQuote;
+            } else if (current == SPACE && !insideQuote) {
+                addToken(tokenStart, write);
+                tokenStart = write;
+            } else {
+                frame.put(write++, current);
+            }
+        }
+        addToken(tokenStart, write);
+
+        this.type = CommandType.fromBytes(frame, tokenStarts[0], tokenEnds[0]);
+        return this;
+    }
+
+    @Override
+    public CommandType type() {
+        return type;
+    }
+
+    @Override
+    public int argumentCount() {
+        return tokenCount - 1;
+    }
+
+    @Override
+    public String argument(int index) {
+        return token(checkedToken(index));
+    }
+
+    @Override
+    public double numericArgument(int index) {
+        int token = checkedToken(index);
+        int start = tokenStarts[token];
+        int end = tokenEnds[token];
+
+        int position = start;
+        boolean isNegative = false;
+        if (position < end && (frame.get(position) == '-' || frame.get(position) == '+')) {
+            isNegative = frame.get(position) == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; position < end; position++) {
+            byte current = frame.get(position);
+            if (current >= '0' && current <= '9') {
+                mantissa = mantissa * 10 + (current - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (current == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (position < end || digits == 0 || digits > MAX_EXACT_DIGITS) {
+            return Double.parseDouble(token(token));
+        }
+
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return isNegative ? -value : value;
+    }
+
+    @Override
+    public Command toCommand() {
+        String[] arguments = new String[argumentCount()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = token(i + 1);
+        }
+
+        return new Command(token(0), arguments);
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder result = new StringBuilder(token(0));
+
+        for (int i = 1; i < tokenCount; i++) {
+            result.append(" ").append(token(i));
+        }
+
+        return result.toString();
+    }
+
+    private void addToken(int start, int end) {
+        if (tokenCount == tokenStarts.length) {
+            tokenStarts = Arrays.copyOf(tokenStarts, tokenCount * 2);
+            tokenEnds = Arrays.copyOf(tokenEnds, tokenCount * 2);
+        }
+
+        tokenStarts[tokenCount] = start;
+        tokenEnds[tokenCount] = end;
+        tokenCount++;
+    }
+
+    private int checkedToken(int index) {
+        if (index < 0 || index >= argumentCount()) {
+            throw new IndexOutOfBoundsException(index);
+        }
+
+        return index + 1;
+    }
+
+    private String token(int token) {
+        int length = tokenEnds[token] - tokenStarts[token];
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+
+        frame.get(tokenStarts[token], scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,222 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Resident accounts, kept as a segmented LRU. New accounts enter the probation segment and are promoted
+ * to the protected segment when they are used again, so accounts that are used often outlive a burst of
+ * accounts that are used once. Pinned accounts are never offered for eviction.
+ */
+final class AccountCache {
+
+    private static final float PROTECTED_SHARE = 0.8f;
+    private static final float LOAD_FACTOR = 0.75f;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int protectedCapacity;
+    private final Map<String, Account> probation;
+    private final Map<String, Account> protectedSegment;
+    private final Map<String, Account> pinned;
+    private final Lock lock;
+
+    AccountCache(int capacity) {
+        this.protectedCapacity = (int) (capacity * PROTECTED_SHARE);
+        this.probation = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        this.protectedSegment = new LinkedHashMap<>(INITIAL_CAPACITY, LOAD_FACTOR, true);
+        this.pinned = new HashMap<>();
+        this.lock = new ReentrantLock();
+    }
+
+    Account get(String username) {
+        lock.lock();
+        try {
+            Account account = pinned.get(username);
+            if (account == null) {
+                account = protectedSegment.get(username);
+            }
+            if (account == null) {
+                account = probation.remove(username);
+                if (account != null) {
+                    protect(username, account);
+                }
+            }
+
+            return account;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the resident account with the same username or null if the given one was added
+     */
+    Account putIfAbsent(Account account) {
+        lock.lock();
+        try {
+            Account existing = peek(account.getUsername());
+            if (existing == null) {
+                probation.put(account.getUsername(), account);
+            }
+
+            return existing;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the resident account that was replaced or null if there was none
+     */
+    Account put(Account account) {
+        String username = account.getUsername();
+
+        lock.lock();
+        try {
+            if (pinned.containsKey(username)) {
+                return pinned.put(username, account);
+            }
+            if (protectedSegment.containsKey(username)) {
+                return protectedSegment.put(username, account);
+            }
+
+            return probation.put(username, account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the account unless it is pinned or another account with its username has replaced it
+     */
+    boolean remove(Account account) {
+        lock.lock();
+        try {
+            return probation.remove(account.getUsername(), account)
+                || protectedSegment.remove(account.getUsername(), account);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes the account with the username, even if it is pinned
+     *
+     * @return the removed account or null if it was not resident
+     */
+    Account delete(String username) {
+        lock.lock();
+        try {
+            Account account = pinned.remove(username);
+            if (account == null) {
+                account = protectedSegment.remove(username);
+            }
+
+            return account == null ? probation.remove(username) : account;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void pin(String username) {
+        lock.lock();
+        try {
+            Account account = probation.remove(username);
+            if (account == null) {
+                account = protectedSegment.remove(username);
+            }
+            if (account != null) {
+                pinned.put(username, account);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void unpin(String username) {
+        lock.lock();
+        try {
+            Account account = pinned.remove(username);
+            if (account != null) {
+                protect(username, account);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return up to count unpinned accounts, the ones to evict first coming first
+     */
+    List<Account> evictionCandidates(int count) {
+        List<Account> candidates = new ArrayList<>(count);
+
+        lock.lock();
+        try {
+            addCandidates(probation, candidates, count);
+            addCandidates(protectedSegment, candidates, count);
+        } finally {
+            lock.unlock();
+        }
+
+        return candidates;
+    }
+
+    List<Account> values() {
+        lock.lock();
+        try {
+            List<Account> values = new ArrayList<>(size());
+            values.addAll(pinned.values());
+            values.addAll(protectedSegment.values());
+            values.addAll(probation.values());
+
+            return values;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int size() {
+        lock.lock();
+        try {
+            return pinned.size() + protectedSegment.size() + probation.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Account peek(String username) {
+        Account account = pinned.get(username);
+        if (account == null) {
+            account = protectedSegment.get(username);
+        }
+
+        return account == null ? probation.get(username) : account;
+    }
+
+    private void protect(String username, Account account) {
+        protectedSegment.put(username, account);
+
+        if (protectedSegment.size() > protectedCapacity) {
+            Iterator<Map.Entry<String, Account>> eldest = protectedSegment.entrySet().iterator();
+            Map.Entry<String, Account> demoted = eldest.next();
+            eldest.remove();
+            probation.put(demoted.getKey(), demoted.getValue());
+        }
+    }
+
+    private static void addCandidates(Map<String, Account> segment, List<Account> candidates, int count) {
+        Iterator<Account> iterator = segment.values().iterator();
+        while (candidates.size() < count && iterator.hasNext()) {
+            candidates.add(iterator.next());
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+public enum AccountChange {
+    REGISTER,
+    DEPOSIT,
+    BUY,
+    SELL,
+    PASSWORD_CHANGE,
+    ADMIN_CHANGE,
+    PUT,
+    DELETE
+}
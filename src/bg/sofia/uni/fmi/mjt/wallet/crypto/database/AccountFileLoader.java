@@ -0,0 +1,253 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.zip.CRC32;
+
+/**
+ * Indexes an accounts file by memory-mapping it and scanning line-aligned chunks in parallel on the common
+ * fork-join pool. Only the hash of the username and the offset of every record are kept, no accounts are
+ * created. If the file ends with a {@link SnapshotWriter} footer, the record count and the checksum are
+ * verified, the checksum being computed alongside the scanning. A file starting with the header of
+ * {@link SnapshotWriter} must have the footer, only legacy files are read without one.
+ */
+final class AccountFileLoader {
+
+    private static final long PARALLEL_THRESHOLD_BYTES = 1024 * 1024;
+    private static final long MAX_CHUNK_BYTES = 64 * 1024 * 1024;
+    private static final int CHUNKS_PER_THREAD = 4;
+    private static final int FOOTER_SEARCH_BYTES = 256;
+    private static final int ALIGNMENT_READ_BYTES = 256;
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    record Result(Entries entries, long bytes, long nanos) {
+    }
+
+    private AccountFileLoader() {
+    }
+
+    static Result load(Path path) throws IOException {
+        long started = System.nanoTime();
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long recordsStart = hasHeader(channel, size) ? SnapshotWriter.HEADER_BYTES : 0;
+            String footer = readFooter(channel, size);
+            if (footer == null && recordsStart > 0) {
+                throw SnapshotReader.missingFooter(path);
+            }
+            long recordsEnd = footer == null ? size : size - footer.length() - 1;
+
+            ForkJoinTask<Long> checksum = null;
+            if (footer != null) {
+                checksum = ForkJoinPool.commonPool().submit(() -> checksum(channel, recordsStart, recordsEnd));
+            }
+
+            Entries entries = new Entries();
+            List<ChunkIndexer> indexers = split(channel, recordsStart, recordsEnd);
+            if (indexers.size() == 1) {
+                entries = indexers.getFirst().call();
+            } else {
+                List<ForkJoinTask<Entries>> tasks = indexers.stream()
+                    .map(indexer -> ForkJoinTask.adapt(indexer))
+                    .toList();
+                for (ForkJoinTask<Entries> task : ForkJoinTask.invokeAll(tasks)) {
+                    entries.addAll(task.join());
+                }
+            }
+
+            if (footer != null) {
+                SnapshotReader.verify(path, footer, entries.count(), checksum.join());
+            }
+
+            return new Result(entries, size, System.nanoTime() - started);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static boolean hasHeader(FileChannel channel, long size) throws IOException {
+        if (size < SnapshotWriter.HEADER_BYTES) {
+            return false;
+        }
+
+        ByteBuffer head = ByteBuffer.allocate(SnapshotWriter.HEADER_BYTES);
+        channel.read(head, 0);
+
+        return new String(head.array(), StandardCharsets.UTF_8).equals(SnapshotWriter.HEADER + (char) NEW_LINE);
+    }
+
+    private static String readFooter(FileChannel channel, long size) throws IOException {
+        int length = (int) Math.min(size, FOOTER_SEARCH_BYTES);
+        ByteBuffer tail = ByteBuffer.allocate(length);
+        channel.read(tail, size - length);
+
+        int end = length;
+        if (end == 0 || tail.get(end - 1) != NEW_LINE) {
+            return null;
+        }
+
+        int start = end - 1;
+        while (start > 0 && tail.get(start - 1) != NEW_LINE) {
+            start--;
+        }
+
+        String last = new String(tail.array(), start, end - 1 - start, StandardCharsets.UTF_8);
+        return last.startsWith(SnapshotWriter.FOOTER_PREFIX) ? last : null;
+    }
+
+    private static List<ChunkIndexer> split(FileChannel channel, long start, long end) throws IOException {
+        List<ChunkIndexer> indexers = new ArrayList<>();
+        if (end - start < PARALLEL_THRESHOLD_BYTES) {
+            indexers.add(new ChunkIndexer(channel, start, end));
+            return indexers;
+        }
+
+        long chunks = (long) ForkJoinPool.getCommonPoolParallelism() * CHUNKS_PER_THREAD;
+        long chunkSize = Math.min(MAX_CHUNK_BYTES, Math.max(PARALLEL_THRESHOLD_BYTES, (end - start) / chunks));
+
+        while (start < end) {
+            long chunkEnd = start + chunkSize >= end ? end : nextLineStart(channel, start + chunkSize, end);
+            indexers.add(new ChunkIndexer(channel, start, chunkEnd));
+            start = chunkEnd;
+        }
+
+        return indexers;
+    }
+
+    private static long nextLineStart(FileChannel channel, long position, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ALIGNMENT_READ_BYTES);
+
+        while (position < end) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == NEW_LINE) {
+                    return Math.min(position + i + 1, end);
+                }
+            }
+            position += read;
+        }
+
+        return end;
+    }
+
+    private static long checksum(FileChannel channel, long start, long end) {
+        CRC32 crc = new CRC32();
+
+        try {
+            for (long position = start; position < end; position += MAX_CHUNK_BYTES) {
+                crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(MAX_CHUNK_BYTES, end - position)));
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        return crc.getValue();
+    }
+
+    /**
+     * Finds the records between two line starts and computes their username hashes and offsets
+     */
+    private static final class ChunkIndexer implements Callable<Entries> {
+
+        private final FileChannel channel;
+        private final long start;
+        private final long end;
+
+        ChunkIndexer(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public Entries call() {
+            MappedByteBuffer bytes;
+            try {
+                bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            Entries entries = new Entries();
+            int position = 0;
+            int limit = bytes.limit();
+            while (position < limit) {
+                int lineEnd = AccountRecordParser.indexOf(bytes, NEW_LINE, position, limit);
+                int recordEnd = lineEnd;
+                if (recordEnd > position && bytes.get(recordEnd - 1) == CARRIAGE_RETURN) {
+                    recordEnd--;
+                }
+
+                if (!AccountRecordParser.isBlank(bytes, position, recordEnd)) {
+                    int usernameStart = AccountRecordParser.indexOf(bytes, AccountRecordParser.DELIMITER,
+                        position, recordEnd) + 1;
+                    int usernameEnd = AccountRecordParser.indexOf(bytes, AccountRecordParser.DELIMITER,
+                        usernameStart, recordEnd);
+                    entries.add(AccountIndex.hash(bytes, usernameStart, usernameEnd), start + position);
+                }
+                position = lineEnd + 1;
+            }
+
+            return entries;
+        }
+    }
+
+    /**
+     * Username hashes and record offsets, in the order of the records in the file
+     */
+    static final class Entries {
+
+        private static final int INITIAL_CAPACITY = 1024;
+
+        private int[] hashes = new int[INITIAL_CAPACITY];
+        private long[] offsets = new long[INITIAL_CAPACITY];
+        private int count;
+
+        int count() {
+            return count;
+        }
+
+        int hash(int i) {
+            return hashes[i];
+        }
+
+        long offset(int i) {
+            return offsets[i];
+        }
+
+        private void add(int hash, long offset) {
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+
+            hashes[count] = hash;
+            offsets[count++] = offset;
+        }
+
+        private void addAll(Entries other) {
+            for (int i = 0; i < other.count; i++) {
+                add(other.hashes[i], other.offsets[i]);
+            }
+        }
+    }
+}
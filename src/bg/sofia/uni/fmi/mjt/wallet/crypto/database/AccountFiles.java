@@ -0,0 +1,259 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * The accounts on disk, kept as a log-structured store in layers where newer ones win: the base file,
+ * found through its {@link AccountIndex}, the sorted {@link DeltaFiles} written since the last merge,
+ * and the memtable of records waiting for the next flush. Dirty accounts enter the memtable when they are
+ * flushed or evicted, with their version, so an older state never replaces a newer one, and deleted
+ * accounts enter it as tombstones. A flush freezes the memtable and writes it to a new delta file.
+ * Flushes, compactions and merges must be serialized by the caller.
+ */
+class AccountFiles implements AccountSource, AutoCloseable {
+
+    private static final NavigableMap<String, Entry> NO_ENTRIES = Collections.emptyNavigableMap();
+
+    private record Entry(long version, String record) {
+    }
+
+    private final Path basePath;
+    private final DeltaFiles deltaFiles;
+    private final ReadWriteLock memtableLock;
+    private final ReadWriteLock indexLock;
+    private volatile NavigableMap<String, Entry> memtable;
+    private volatile NavigableMap<String, Entry> flushing;
+    private volatile AccountIndex index;
+
+    AccountFiles(Path basePath) throws IOException {
+        this.basePath = basePath;
+        this.deltaFiles = new DeltaFiles(basePath);
+        this.memtableLock = new ReentrantReadWriteLock();
+        this.indexLock = new ReentrantReadWriteLock();
+        this.memtable = new ConcurrentSkipListMap<>();
+        this.flushing = NO_ENTRIES;
+        this.index = AccountIndex.open(basePath);
+    }
+
+    int getIndexedCount() {
+        return index.size();
+    }
+
+    long getIndexedBytes() {
+        return index.getLoadedBytes();
+    }
+
+    long getIndexNanos() {
+        return index.getLoadNanos();
+    }
+
+    int getDeltaCount() {
+        return deltaFiles.count();
+    }
+
+    long getDeltaRecordCount() {
+        return deltaFiles.recordCount();
+    }
+
+    /**
+     * @return true if the memtable holds records that the next flush writes
+     */
+    boolean hasChanges() {
+        return !memtable.isEmpty();
+    }
+
+    @Override
+    public Account load(String username) {
+        String record = findRecord(username);
+        if (record != null) {
+            return Segment.isTombstone(record) ? null : Account.fromCSV(record);
+        }
+
+        Lock lock = indexLock.readLock();
+        lock.lock();
+        try {
+            return index.read(username);
+        } catch (IOException e) {
+            throw new UncheckedIOException("An error has occurred while reading an account", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return memtable.isEmpty() && flushing.isEmpty() && deltaFiles.recordCount() == 0 && index.size() == 0;
+    }
+
+    /**
+     * The layers are read from the newest to the oldest, so a record moved down by a concurrent flush
+     * or merge is still seen. The base file is not sorted and is streamed whole.
+     */
+    @Override
+    public void scan(String fromUsername, String toUsername, Consumer<Account> consumer) {
+        Map<String, String> latest = new TreeMap<>();
+        range(memtable, fromUsername, toUsername).forEach((username, entry) -> latest.put(username, entry.record()));
+        range(flushing, fromUsername, toUsername).forEach((username, entry) ->
+            latest.putIfAbsent(username, entry.record()));
+
+        Lock lock = indexLock.readLock();
+        try {
+            deltaFiles.scan(fromUsername, toUsername,
+                record -> latest.putIfAbsent(Segment.usernameOf(record), record));
+
+            lock.lock();
+            try {
+                index.forEach(record -> {
+                    String username = Segment.usernameOf(record);
+                    if (AccountSource.isInRange(username, fromUsername, toUsername)) {
+                        latest.putIfAbsent(username, record);
+                    }
+                });
+            } finally {
+                lock.unlock();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("An error has occurred while reading the accounts", e);
+        }
+
+        for (String record : latest.values()) {
+            if (!Segment.isTombstone(record)) {
+                consumer.accept(Account.fromCSV(record));
+            }
+        }
+    }
+
+    /**
+     * Puts the current state of the account in the memtable and marks it as persisted. Safe without
+     * the account's lock, as its state is copy-on-write.
+     */
+    @Override
+    public void writeBack(Account account) {
+        long version = account.getVersion();
+        put(account.getUsername(), new Entry(version, account.toCSV()));
+        account.markPersisted(version);
+    }
+
+    /**
+     * Puts a tombstone for the account in the memtable, which hides its records in the older layers
+     *
+     * @param version A version of the deleted account greater than any of its written back states
+     */
+    void delete(String username, long version) {
+        put(username, new Entry(version, Segment.tombstone(username)));
+    }
+
+    /**
+     * Freezes the memtable and writes it to a new delta file. Lookups read the frozen memtable until the
+     * delta file is visible, and records put meanwhile go to a new memtable.
+     */
+    void flush() throws IOException {
+        NavigableMap<String, Entry> frozen;
+        Lock lock = memtableLock.writeLock();
+        lock.lock();
+        try {
+            frozen = memtable;
+            if (frozen.isEmpty()) {
+                return;
+            }
+
+            flushing = frozen;
+            memtable = new ConcurrentSkipListMap<>();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            deltaFiles.write(frozen.values().stream().map(Entry::record).iterator());
+        } catch (IOException e) {
+            frozen.forEach(this::put);
+            throw e;
+        } finally {
+            flushing = NO_ENTRIES;
+        }
+    }
+
+    /**
+     * Merges the delta files into one
+     */
+    void compact() throws IOException {
+        deltaFiles.compact();
+    }
+
+    /**
+     * Merges the delta files into the base file and indexes the new base file
+     */
+    void merge() throws IOException {
+        List<Segment> merged = deltaFiles.merge();
+        if (merged.isEmpty()) {
+            return;
+        }
+
+        AccountIndex mergedIndex = AccountIndex.open(basePath);
+        AccountIndex previous;
+        Lock lock = indexLock.writeLock();
+        lock.lock();
+        try {
+            previous = index;
+            index = mergedIndex;
+        } finally {
+            lock.unlock();
+        }
+
+        previous.close();
+        deltaFiles.remove(merged);
+    }
+
+    @Override
+    public void close() throws IOException {
+        index.close();
+        deltaFiles.close();
+    }
+
+    private void put(String username, Entry entry) {
+        Lock lock = memtableLock.readLock();
+        lock.lock();
+        try {
+            memtable.merge(username, entry, (current, given) -> given.version() > current.version() ? given : current);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private String findRecord(String username) {
+        Entry entry = memtable.get(username);
+        if (entry == null) {
+            entry = flushing.get(username);
+        }
+        if (entry != null) {
+            return entry.record();
+        }
+
+        try {
+            return deltaFiles.find(username);
+        } catch (IOException e) {
+            throw new UncheckedIOException("An error has occurred while reading an account", e);
+        }
+    }
+
+    private static NavigableMap<String, Entry> range(NavigableMap<String, Entry> entries,
+                                                     String fromUsername, String toUsername) {
+        NavigableMap<String, Entry> range = fromUsername == null ? entries : entries.tailMap(fromUsername, true);
+
+        return toUsername == null ? range : range.headMap(toUsername, false);
+    }
+}
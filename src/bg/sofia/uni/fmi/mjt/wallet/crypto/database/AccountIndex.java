@@ -0,0 +1,164 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Username index of an accounts file: an open addressing table holding the username hash and the file
+ * offset of every record, about 24 bytes per account. A lookup reads the candidate records from the file
+ * and compares their usernames, so no usernames are kept in memory. When a username appears more than
+ * once, the first record wins.
+ */
+final class AccountIndex implements AutoCloseable {
+
+    private static final int READ_BYTES = 512;
+    private static final int HASH_MULTIPLIER = 31;
+    private static final byte NEW_LINE = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int size;
+    private final long loadedBytes;
+    private final long loadNanos;
+    private final int[] hashes;
+    private final long[] offsets;
+    private final int mask;
+
+    private AccountIndex(Path path, FileChannel channel, AccountFileLoader.Result loadResult) {
+        this.path = path;
+        this.channel = channel;
+        this.size = loadResult == null ? 0 : loadResult.entries().count();
+        this.loadedBytes = loadResult == null ? 0 : loadResult.bytes();
+        this.loadNanos = loadResult == null ? 0 : loadResult.nanos();
+
+        int capacity = Integer.highestOneBit(Math.max(1, size) * 2) * 2;
+        this.hashes = new int[capacity];
+        this.offsets = new long[capacity];
+        this.mask = capacity - 1;
+
+        for (int i = 0; i < size; i++) {
+            int slot = loadResult.entries().hash(i) & mask;
+            while (offsets[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            hashes[slot] = loadResult.entries().hash(i);
+            offsets[slot] = loadResult.entries().offset(i) + 1;
+        }
+    }
+
+    static AccountIndex open(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return new AccountIndex(path, null, null);
+        }
+
+        AccountFileLoader.Result result = AccountFileLoader.load(path);
+        return new AccountIndex(path, FileChannel.open(path, StandardOpenOption.READ), result);
+    }
+
+    static int hash(ByteBuffer bytes, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i++) {
+            hash = HASH_MULTIPLIER * hash + bytes.get(i);
+        }
+
+        return mix(hash);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getLoadedBytes() {
+        return loadedBytes;
+    }
+
+    long getLoadNanos() {
+        return loadNanos;
+    }
+
+    /**
+     * @return the account stored under the username or null if there is none
+     */
+    Account read(String username) throws IOException {
+        if (channel == null) {
+            return null;
+        }
+
+        ByteBuffer name = ByteBuffer.wrap(username.getBytes(StandardCharsets.UTF_8));
+        int hash = hash(name, 0, name.limit());
+
+        for (int slot = hash & mask; offsets[slot] != 0; slot = (slot + 1) & mask) {
+            if (hashes[slot] != hash) {
+                continue;
+            }
+
+            ByteBuffer record = readRecord(offsets[slot] - 1);
+            int usernameStart = AccountRecordParser.indexOf(record, AccountRecordParser.DELIMITER,
+                0, record.limit()) + 1;
+            int usernameEnd = AccountRecordParser.indexOf(record, AccountRecordParser.DELIMITER,
+                usernameStart, record.limit());
+            if (record.slice(usernameStart, usernameEnd - usernameStart).equals(name)) {
+                return new AccountRecordParser().parse(record, 0, record.limit());
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Passes every record of the file to the consumer, in order
+     */
+    void forEach(SnapshotReader.RecordConsumer consumer) throws IOException {
+        if (channel != null) {
+            SnapshotReader.read(path, consumer);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+        }
+    }
+
+    private ByteBuffer readRecord(long offset) throws IOException {
+        byte[] record = new byte[READ_BYTES];
+        int length = 0;
+
+        while (true) {
+            ByteBuffer target = ByteBuffer.wrap(record, length, record.length - length);
+            int read = channel.read(target, offset + length);
+            if (read <= 0) {
+                break;
+            }
+
+            int end = AccountRecordParser.indexOf(ByteBuffer.wrap(record), NEW_LINE, length, length + read);
+            length += read;
+            if (end < length) {
+                length = end;
+                break;
+            }
+            if (length == record.length) {
+                record = Arrays.copyOf(record, record.length * 2);
+            }
+        }
+
+        if (length > 0 && record[length - 1] == CARRIAGE_RETURN) {
+            length--;
+        }
+        return ByteBuffer.wrap(record, 0, length).slice();
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+}
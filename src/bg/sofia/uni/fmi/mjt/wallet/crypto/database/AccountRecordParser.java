@@ -0,0 +1,129 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Wallet;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parses account records, in the format of {@link Account#toCSV()}, straight from their bytes with a
+ * hand-written delimiter scanner. Wallets without holdings share an empty map.
+ * Not thread safe, as it reuses a scratch array for the strings it decodes.
+ */
+final class AccountRecordParser {
+
+    static final byte DELIMITER = ';';
+
+    private static final int INITIAL_SCRATCH_BYTES = 256;
+    private static final int MAX_EXACT_DIGITS = 15;
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15
+    };
+
+    private byte[] scratch = new byte[INITIAL_SCRATCH_BYTES];
+
+    Account parse(ByteBuffer bytes, int from, int to) {
+        int adminEnd = indexOf(bytes, DELIMITER, from, to);
+        int usernameEnd = indexOf(bytes, DELIMITER, adminEnd + 1, to);
+        int passwordEnd = indexOf(bytes, DELIMITER, usernameEnd + 1, to);
+        int balanceEnd = indexOf(bytes, DELIMITER, passwordEnd + 1, to);
+
+        boolean isAdmin = parseDouble(bytes, from, adminEnd) != 0;
+        String username = string(bytes, adminEnd + 1, usernameEnd);
+        String password = string(bytes, usernameEnd + 1, passwordEnd);
+        double balance = parseDouble(bytes, passwordEnd + 1, balanceEnd);
+
+        Map<String, Double> cryptoInWallet = Collections.emptyMap();
+        Map<String, Double> totalDepositedInCrypto = Collections.emptyMap();
+        int position = balanceEnd + 1;
+        if (position < to) {
+            cryptoInWallet = new HashMap<>();
+            totalDepositedInCrypto = new HashMap<>();
+        }
+        while (position < to) {
+            int assetEnd = indexOf(bytes, DELIMITER, position, to);
+            int amountEnd = indexOf(bytes, DELIMITER, assetEnd + 1, to);
+            int depositedEnd = indexOf(bytes, DELIMITER, amountEnd + 1, to);
+
+            String asset = string(bytes, position, assetEnd);
+            cryptoInWallet.put(asset, parseDouble(bytes, assetEnd + 1, amountEnd));
+            totalDepositedInCrypto.put(asset, parseDouble(bytes, amountEnd + 1, depositedEnd));
+            position = depositedEnd + 1;
+        }
+
+        return Account.restore(username, password, isAdmin,
+            Wallet.restore(balance, cryptoInWallet, totalDepositedInCrypto));
+    }
+
+    static int indexOf(ByteBuffer bytes, byte target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (bytes.get(i) == target) {
+                return i;
+            }
+        }
+
+        return to;
+    }
+
+    static boolean isBlank(ByteBuffer bytes, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (!Character.isWhitespace(bytes.get(i))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private String string(ByteBuffer bytes, int from, int to) {
+        int length = to - from;
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        bytes.get(from, scratch, 0, length);
+
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Values with up to 15 digits and no exponent are computed exactly from the digits,
+     * anything else falls back to {@link Double#parseDouble(String)}.
+     */
+    private double parseDouble(ByteBuffer bytes, int from, int to) {
+        int position = from;
+        boolean isNegative = false;
+        if (position < to && (bytes.get(position) == '-' || bytes.get(position) == '+')) {
+            isNegative = bytes.get(position) == '-';
+            position++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; position < to; position++) {
+            byte current = bytes.get(position);
+            if (current >= '0' && current <= '9') {
+                mantissa = mantissa * 10 + (current - '0');
+                digits++;
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (current == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                break;
+            }
+        }
+
+        if (position < to || digits == 0 || digits > MAX_EXACT_DIGITS) {
+            return Double.parseDouble(string(bytes, from, to));
+        }
+
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        return isNegative ? -value : value;
+    }
+}
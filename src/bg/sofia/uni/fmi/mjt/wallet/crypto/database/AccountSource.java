@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.util.function.Consumer;
+
+/**
+ * Where an {@link AccountStore} reads accounts that are not resident and writes back evicted ones
+ */
+interface AccountSource {
+
+    /**
+     * @return a new instance of the stored account or null if there is none
+     */
+    Account load(String username);
+
+    boolean isEmpty();
+
+    /**
+     * Passes a new instance of every stored account with a username in the range to the consumer,
+     * in username order. A null bound leaves that side of the range open.
+     *
+     * @param fromUsername The first username of the range, inclusive
+     * @param toUsername   The end of the range, exclusive
+     */
+    void scan(String fromUsername, String toUsername, Consumer<Account> consumer);
+
+    /**
+     * Passes a new instance of every stored account to the consumer
+     */
+    default void forEach(Consumer<Account> consumer) {
+        scan(null, null, consumer);
+    }
+
+    /**
+     * Keeps the latest state of a dirty account that is about to be evicted
+     */
+    void writeBack(Account account);
+
+    static boolean isInRange(String username, String fromUsername, String toUsername) {
+        return (fromUsername == null || username.compareTo(fromUsername) >= 0)
+            && (toUsername == null || username.compareTo(toUsername) < 0);
+    }
+}
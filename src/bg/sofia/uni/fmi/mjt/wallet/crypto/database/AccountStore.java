@@ -0,0 +1,286 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.AccountLocks;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Store of accounts indexed by username, with secondary indexes of the admins and of the holders of every asset.
+ * Without an {@link AccountSource} every account stays in memory. With one, at most capacity accounts are
+ * resident, apart from pinned ones: the rest are read from the source when they are looked up, and evicted
+ * accounts that are dirty are written back to it. The secondary indexes then cover the resident accounts.
+ * The secondary indexes are refreshed by {@link #reindex(Account)}, which must be called
+ * under the account's lock after its admin status or wallet assets change.
+ */
+public class AccountStore {
+
+    private static final int UNBOUNDED = Integer.MAX_VALUE;
+    private static final int EXTRA_EVICTION_CANDIDATES = 8;
+
+    private final AccountSource source;
+    private final int capacity;
+    private final AccountCache cache;
+    private final Set<Account> admins;
+    private final Map<String, Set<Account>> holdersByAsset;
+    private final Map<String, Set<String>> assetsByUsername;
+
+    public AccountStore() {
+        this(null, UNBOUNDED);
+    }
+
+    AccountStore(AccountSource source, int capacity) {
+        this.source = source;
+        this.capacity = capacity;
+        this.cache = new AccountCache(capacity);
+        this.admins = ConcurrentHashMap.newKeySet();
+        this.holdersByAsset = new ConcurrentHashMap<>();
+        this.assetsByUsername = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Looks the account up, reading it from the source if it is not resident. Callers that go on to use
+     * an account which is not pinned must hold the lock of its username, which keeps it from being evicted.
+     *
+     * @return the account with the given username or null if there is none
+     */
+    public Account find(String username) {
+        if (username == null) {
+            return null;
+        }
+
+        Account resident = cache.get(username);
+        if (resident != null || source == null) {
+            return resident;
+        }
+
+        Account loaded = source.load(username);
+        if (loaded == null) {
+            return null;
+        }
+
+        Account existing = cache.putIfAbsent(loaded);
+        if (existing != null) {
+            return existing;
+        }
+
+        reindex(loaded);
+        evict(loaded);
+        return loaded;
+    }
+
+    /**
+     * Adds the account unless one with the same username is already stored.
+     *
+     * @return the account that was already stored or null if the given one was added
+     */
+    public Account putIfAbsent(Account account) {
+        Account existing = find(account.getUsername());
+        if (existing == null) {
+            existing = cache.putIfAbsent(account);
+        }
+        if (existing == null) {
+            reindex(account);
+            evict(account);
+        }
+
+        return existing;
+    }
+
+    /**
+     * Stores the account, replacing the resident account with the same username if there is one
+     */
+    public void put(Account account) {
+        Account previous = cache.put(account);
+        if (previous != null) {
+            unindex(previous);
+        }
+
+        reindex(account);
+        evict(account);
+    }
+
+    /**
+     * Removes the account with the username from memory, even if it is pinned
+     *
+     * @return the removed account or null if it was not resident
+     */
+    public Account remove(String username) {
+        Account removed = cache.delete(username);
+        if (removed != null) {
+            unindex(removed);
+        }
+
+        return removed;
+    }
+
+    /**
+     * Keeps the account resident until it is unpinned, used while it is logged in
+     */
+    public void pin(Account account) {
+        cache.pin(account.getUsername());
+    }
+
+    public void unpin(Account account) {
+        cache.unpin(account.getUsername());
+        evict(null);
+    }
+
+    public void reindex(Account account) {
+        if (account.getAdminStatus()) {
+            admins.add(account);
+        } else {
+            admins.remove(account);
+        }
+
+        Set<String> held = Set.copyOf(account.getWallet().getCryptoInWallet().keySet());
+        Set<String> previous = assetsByUsername.put(account.getUsername(), held);
+
+        if (previous != null) {
+            for (String asset : previous) {
+                if (!held.contains(asset)) {
+                    holdersByAsset.computeIfPresent(asset, (key, holders) -> {
+                        holders.remove(account);
+                        return holders.isEmpty() ? null : holders;
+                    });
+                }
+            }
+        }
+        for (String asset : held) {
+            holdersByAsset.compute(asset, (key, holders) -> {
+                Set<Account> updated = holders == null ? ConcurrentHashMap.newKeySet() : holders;
+                updated.add(account);
+                return updated;
+            });
+        }
+    }
+
+    public boolean isEmpty() {
+        return cache.size() == 0 && (source == null || source.isEmpty());
+    }
+
+    /**
+     * @return the number of stored accounts, which reads every account from the source if there is one
+     */
+    public int size() {
+        return source == null ? cache.size() : getAccounts().size();
+    }
+
+    public int getResidentCount() {
+        return cache.size();
+    }
+
+    /**
+     * @return a read-only view of all stored accounts. Every iteration reads the accounts that are not
+     *     resident from the source, without making them resident.
+     */
+    public Set<Account> getAccounts() {
+        return new AbstractSet<>() {
+            @Override
+            public Iterator<Account> iterator() {
+                return Collections.unmodifiableSet(collectAccounts()).iterator();
+            }
+
+            @Override
+            public int size() {
+                return collectAccounts().size();
+            }
+        };
+    }
+
+    /**
+     * @return the accounts with usernames from fromUsername, inclusive, to toUsername, exclusive, in username
+     *     order, where a null bound leaves that side of the range open. Resident accounts are returned as they
+     *     are, the rest are read from the source without making them resident.
+     */
+    public List<Account> scan(String fromUsername, String toUsername) {
+        NavigableMap<String, Account> accounts = new TreeMap<>();
+        if (source != null) {
+            source.scan(fromUsername, toUsername, account -> accounts.put(account.getUsername(), account));
+        }
+        for (Account resident : cache.values()) {
+            if (AccountSource.isInRange(resident.getUsername(), fromUsername, toUsername)) {
+                accounts.put(resident.getUsername(), resident);
+            }
+        }
+
+        return List.copyOf(accounts.values());
+    }
+
+    public Set<Account> getAdmins() {
+        return Collections.unmodifiableSet(admins);
+    }
+
+    public Set<Account> getHolders(String assetId) {
+        return Collections.unmodifiableSet(holdersByAsset.getOrDefault(assetId, Set.of()));
+    }
+
+    private Set<Account> collectAccounts() {
+        Set<Account> accounts = new HashSet<>(cache.values());
+        if (source != null) {
+            source.forEach(accounts::add);
+        }
+
+        return accounts;
+    }
+
+    /**
+     * Evicts accounts until no more than capacity are resident. Accounts whose lock is held are
+     * in use and skipped, so the store can stay over capacity until they are released.
+     */
+    private void evict(Account justAdded) {
+        int excess = cache.size() - capacity;
+        if (excess <= 0) {
+            return;
+        }
+
+        for (Account candidate : cache.evictionCandidates(excess + EXTRA_EVICTION_CANDIDATES)) {
+            if (excess <= 0) {
+                return;
+            }
+            if (candidate == justAdded) {
+                continue;
+            }
+
+            Lock lock = AccountLocks.forAccount(candidate);
+            if (!lock.tryLock()) {
+                continue;
+            }
+            try {
+                if (candidate.isDirty()) {
+                    source.writeBack(candidate);
+                }
+                if (cache.remove(candidate)) {
+                    unindex(candidate);
+                    excess--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void unindex(Account account) {
+        admins.remove(account);
+
+        Set<String> held = assetsByUsername.remove(account.getUsername());
+        if (held != null) {
+            for (String asset : held) {
+                holdersByAsset.computeIfPresent(asset, (key, holders) -> {
+                    holders.remove(account);
+                    return holders.isEmpty() ? null : holders;
+                });
+            }
+        }
+    }
+}
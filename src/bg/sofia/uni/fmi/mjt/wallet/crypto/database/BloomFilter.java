@@ -0,0 +1,66 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter over usernames with about 10 bits per entry and 7 probes, which gives about 1% false positives.
+ * Entries are added through their {@link #hash(String)} while the filter is built and never removed.
+ */
+final class BloomFilter {
+
+    private static final int BITS_PER_ENTRY = 10;
+    private static final int PROBES = 7;
+    private static final int MIN_BITS = Long.SIZE;
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long[] bits;
+    private final int bitCount;
+
+    BloomFilter(long[] hashes, int count) {
+        this.bitCount = Math.max(MIN_BITS, count * BITS_PER_ENTRY);
+        this.bits = new long[(bitCount + Long.SIZE - 1) / Long.SIZE];
+
+        for (long hash : Arrays.copyOf(hashes, count)) {
+            for (int i = 0; i < PROBES; i++) {
+                int bit = bitOf(hash, i);
+                bits[bit >>> 6] |= 1L << bit;
+            }
+        }
+    }
+
+    static long hash(String username) {
+        long hash = FNV_OFFSET;
+        for (int i = 0; i < username.length(); i++) {
+            hash = (hash ^ username.charAt(i)) * FNV_PRIME;
+        }
+
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        return hash ^ (hash >>> 33);
+    }
+
+    /**
+     * @return false if the username was certainly not added, true if it may have been
+     */
+    boolean mightContain(String username) {
+        long hash = hash(username);
+        for (int i = 0; i < PROBES; i++) {
+            int bit = bitOf(hash, i);
+            if ((bits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Double hashing, the two halves of the hash give the start and the step of the probes
+     */
+    private int bitOf(long hash, int probe) {
+        int combined = (int) hash + probe * (int) (hash >>> 32);
+
+        return (combined & Integer.MAX_VALUE) % bitCount;
+    }
+}
@@ -0,0 +1,38 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+/**
+ * Counters of the group commits of the log since it was opened
+ *
+ * @param batches           Number of batches forced to disk
+ * @param records           Number of records in those batches
+ * @param maxBatchRecords   Most records a batch may hold
+ * @param totalLatencyNanos Sum over all records of the time from their append to the end of their batch's force
+ * @param maxLatencyNanos   Longest time a record waited to be durable
+ */
+public record CommitStats(long batches, long records, int maxBatchRecords, long totalLatencyNanos,
+                          long maxLatencyNanos) {
+
+    public double averageBatchRecords() {
+        return batches == 0 ? 0 : (double) records / batches;
+    }
+
+    /**
+     * @return the average share of the batch size that batches used, from 0 to 1
+     */
+    public double batchFill() {
+        return averageBatchRecords() / maxBatchRecords;
+    }
+
+    public long averageLatencyNanos() {
+        return records == 0 ? 0 : totalLatencyNanos / records;
+    }
+
+    /**
+     * @return the counters of this log and the other one together
+     */
+    public CommitStats plus(CommitStats other) {
+        return new CommitStats(batches + other.batches, records + other.records,
+            Math.max(maxBatchRecords, other.maxBatchRecords), totalLatencyNanos + other.totalLatencyNanos,
+            Math.max(maxLatencyNanos, other.maxLatencyNanos));
+    }
+}
@@ -1,90 +1,364 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
 
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.AccountLocks;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.Collections;
-import java.util.HashSet;
+import java.time.Duration;
+import java.util.List;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.stream.IntStream;
 
 public class Database implements DatabaseAPI {
-    private static final int PERIOD_OF_SAVING = 5;
-    private static final String NEW_LINE = System.lineSeparator();
+    private static final Duration MIN_FLUSH_INTERVAL = Duration.ofSeconds(1);
+    private static final Duration MAX_FLUSH_INTERVAL = Duration.ofSeconds(30);
+    private static final int FLUSH_TARGET_CHANGES = 4096;
+    private static final int COMPACTION_THRESHOLD = 8;
+    private static final int MERGE_RATIO = 4;
+    private static final int DEFAULT_CACHE_CAPACITY = 100_000;
+    private static final int DEFAULT_MAX_BATCH_RECORDS = 256;
+    private static final Duration DEFAULT_MAX_BATCH_DELAY = Duration.ofMillis(1);
+    private static final int STORED_SHARD_COUNT = 0;
+    private static final String LOG_PATH = "server.log";
+    private static final String FLUSH_FAILED_MESSAGE = "An error has occurred while flushing changed accounts";
+    private static final String MERGE_FAILED_MESSAGE = "An error has occurred while merging the delta files";
+    private static final String CLOSE_FAILED_MESSAGE = "An error has occurred while closing the log";
+    private static final String LOG_WRITE_FAILED_MESSAGE = "The log could not be written, stopping the server: ";
+    private static final int LOG_WRITE_FAILED_STATUS = 70;
+    private static final String SHARD_FAILED_MESSAGE = "%s of shard %s";
+    private static final String SHARD_COUNT_MISMATCH_MESSAGE =
+        "The accounts are stored in %d shards, but %d were asked for. Re-shard them with Reshard first";
     private Path filePath;
+    private final ServerLogger logger = new ServerLogger(LOG_PATH);
 
-    private Set<Account> database = new HashSet<>();
-    private static ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final int cacheCapacity;
+    private final int shardCount;
+    private final int maxBatchRecords;
+    private final Duration maxBatchDelay;
+    private AccountStore accountStore;
+    private ShardedAccountFiles shardedFiles;
+    private FlushScheduler flushScheduler;
+    private LoadStats loadStats;
+
+    @FunctionalInterface
+    private interface ShardTask {
+        void run(Shard shard) throws IOException;
+    }
 
     public Database(Path filePath) {
+        this(filePath, DEFAULT_CACHE_CAPACITY);
+    }
+
+    /**
+     * @param cacheCapacity How many accounts are kept in memory, apart from the logged in ones
+     */
+    public Database(Path filePath, int cacheCapacity) {
+        this(filePath, cacheCapacity, STORED_SHARD_COUNT);
+    }
+
+    /**
+     * @param cacheCapacity How many accounts are kept in memory, apart from the logged in ones
+     * @param shardCount    Number of shards the accounts are split into. Accounts stored in another number
+     *                      of shards must be re-sharded with {@link Reshard} first.
+     */
+    public Database(Path filePath, int cacheCapacity, int shardCount) {
+        this(filePath, cacheCapacity, shardCount, DEFAULT_MAX_BATCH_RECORDS, DEFAULT_MAX_BATCH_DELAY);
+    }
+
+    /**
+     * @param cacheCapacity   How many accounts are kept in memory, apart from the logged in ones
+     * @param maxBatchRecords Most changes forced to disk together
+     * @param maxBatchDelay   Longest time a change waits for others to join its batch
+     */
+    public Database(Path filePath, int cacheCapacity, int maxBatchRecords, Duration maxBatchDelay) {
+        this(filePath, cacheCapacity, STORED_SHARD_COUNT, maxBatchRecords, maxBatchDelay);
+    }
+
+    /**
+     * @param cacheCapacity   How many accounts are kept in memory, apart from the logged in ones
+     * @param shardCount      Number of shards the accounts are split into, or 0 for the stored number
+     * @param maxBatchRecords Most changes forced to disk together, per shard
+     * @param maxBatchDelay   Longest time a change waits for others to join its batch
+     */
+    public Database(Path filePath, int cacheCapacity, int shardCount, int maxBatchRecords, Duration maxBatchDelay) {
         this.filePath = filePath;
+        this.cacheCapacity = cacheCapacity;
+        this.shardCount = shardCount;
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchDelay = maxBatchDelay;
         initDatabase();
     }
 
     public Set<Account> getDatabase() {
-        return Collections.unmodifiableSet(database);
+        return accountStore.getAccounts();
+    }
+
+    public AccountStore getAccountStore() {
+        return accountStore;
+    }
+
+    /**
+     * @return the counters of the logs of all shards together
+     */
+    public CommitStats getCommitStats() {
+        return shardedFiles.getShards().stream()
+            .map(Shard::getCommitStats)
+            .reduce(CommitStats::plus)
+            .orElseThrow();
+    }
+
+    public FlushStats getFlushStats() {
+        return flushScheduler.getStats();
+    }
+
+    public LoadStats getLoadStats() {
+        return loadStats;
     }
 
     private void initDatabase() {
         loadData();
-        scheduler.schedule(() -> updateData(database), PERIOD_OF_SAVING, TimeUnit.SECONDS);
+        shardedFiles.getShards().parallelStream()
+            .forEach(shard -> shard.restore((change, account) -> restoreLogged(shard, change, account)));
+
+        flushScheduler = new FlushScheduler(this::flushShards,
+            e -> logger.logError(e.getMessage(), e.getStackTrace()),
+            MIN_FLUSH_INTERVAL.toNanos(), MAX_FLUSH_INTERVAL.toNanos(), FLUSH_TARGET_CHANGES);
     }
 
+    /**
+     * Only the username indexes of the shards are loaded, in parallel, and the changes in their logs read.
+     * Accounts are read when they are looked up. A shard that cannot be read is logged and left unavailable.
+     */
     private void loadData() {
-        if (!Files.exists(filePath)) {
-            return;
+        ShardLayout layout;
+        try {
+            createParentDirectory();
+            layout = resolveLayout();
+        } catch (IOException e) {
+            throw new UncheckedIOException("An error has occurred while loading from file", e);
         }
 
-        try (var bufferedReader = Files.newBufferedReader(filePath)) {
+        long start = System.nanoTime();
+        List<Shard> shards = IntStream.range(0, layout.shardCount()).parallel()
+            .mapToObj(shard -> Shard.open(layout.shardPath(shard), maxBatchRecords, maxBatchDelay.toNanos(),
+                this::stopOnLogFailure))
+            .toList();
+        long loadNanos = System.nanoTime() - start;
 
-            String line;
+        shardedFiles = new ShardedAccountFiles(layout, shards);
+        accountStore = new AccountStore(shardedFiles, cacheCapacity);
 
-            while ((line = bufferedReader.readLine()) != null) {
-                Account account = Account.fromCSV(line);
-                database.add(account);
+        long indexedCount = 0;
+        long indexedBytes = 0;
+        for (Shard shard : shards) {
+            if (shard.isAvailable()) {
+                indexedCount += shard.getAccountFiles().getIndexedCount();
+                indexedBytes += shard.getAccountFiles().getIndexedBytes();
+            } else {
+                logger.logError(shard.getFailure().getMessage(), shard.getFailure().getStackTrace());
             }
+        }
+        loadStats = new LoadStats(indexedCount, indexedBytes, shards.size(), loadNanos);
+    }
 
-        } catch (IOException e) {
-            throw new UncheckedIOException("An error has occurred while loading from file", e);
+    /**
+     * A change whose record could not be logged is already in memory and may be saved by a flush, so it
+     * can neither be reported as failed nor kept. The process is stopped at once, before the callers
+     * waiting for the record hear of it, and the restart recovers every change that was logged.
+     */
+    private void stopOnLogFailure(IOException failure) {
+        logger.logError(LOG_WRITE_FAILED_MESSAGE + failure, failure.getStackTrace());
+        Runtime.getRuntime().halt(LOG_WRITE_FAILED_STATUS);
+    }
+
+    /**
+     * Uses the stored layout, unless another shard count is asked for, which is only possible before
+     * any account is stored
+     */
+    private ShardLayout resolveLayout() throws IOException {
+        ShardLayout stored = ShardLayout.stored(filePath);
+        if (shardCount == STORED_SHARD_COUNT || shardCount == stored.shardCount()) {
+            return stored;
         }
+        if (!ShardLayout.isNew(filePath)) {
+            throw new IllegalStateException(String.format(SHARD_COUNT_MISMATCH_MESSAGE,
+                stored.shardCount(), shardCount));
+        }
+
+        ShardLayout layout = new ShardLayout(filePath, shardCount);
+        layout.store();
+        return layout;
     }
 
-    public void updateData(Set<Account> accounts) {
-        database.addAll(accounts);
-        saveData(database);
-        scheduler.schedule(() -> updateData(database), PERIOD_OF_SAVING, TimeUnit.SECONDS);
+    /**
+     * Accounts restored from the log are not in any delta file yet, so the next flush must write them
+     */
+    private void restoreLogged(Shard shard, AccountChange change, Account account) {
+        account.markDirty();
+        if (change == AccountChange.DELETE) {
+            deleteStored(shard, account);
+            return;
+        }
+
+        accountStore.put(account);
+        shard.addDirty(account);
     }
 
-    private void saveData(Set<Account> database) {
+    @Override
+    public Account get(String username) {
+        return accountStore.find(username);
+    }
+
+    @Override
+    public void put(Account account) {
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forAccount(account);
+        lock.lock();
         try {
-            StringBuilder result = new StringBuilder();
+            accountStore.put(account);
+            commit = recordChange(AccountChange.PUT, account);
+        } finally {
+            lock.unlock();
+        }
+
+        commit.join();
+    }
 
-            for (Account acc : database) {
-                result.append(acc.toCSV()).append(NEW_LINE);
+    @Override
+    public boolean delete(String username) {
+        CompletableFuture<Void> commit;
+        Lock lock = AccountLocks.forUsername(username);
+        lock.lock();
+        try {
+            Account account = accountStore.find(username);
+            if (account == null) {
+                return false;
             }
 
-            if (!Files.exists(filePath.getParent())) {
-                Files.createDirectory(filePath.getParent());
+            Shard shard = shardedFiles.forUsername(username);
+            account.markDirty();
+            deleteStored(shard, account);
+            commit = shard.append(AccountChange.DELETE, account);
+        } finally {
+            lock.unlock();
+        }
+
+        commit.join();
+        return true;
+    }
+
+    @Override
+    public List<Account> scan(String fromUsername, String toUsername) {
+        return accountStore.scan(fromUsername, toUsername);
+    }
+
+    /**
+     * The tombstone gets the version of the last change, so no earlier state of the account can replace it
+     */
+    private void deleteStored(Shard shard, Account account) {
+        accountStore.remove(account.getUsername());
+        shard.deleteStored(account);
+    }
+
+    public void updateData(Set<Account> accounts) {
+        for (Account account : accounts) {
+            if (accountStore.putIfAbsent(account) == null) {
+                recordChange(AccountChange.REGISTER, account);
             }
-            if (!Files.exists(filePath)) {
-                Files.createFile(filePath);
+        }
+
+        flush();
+        merge();
+    }
+
+    public CompletableFuture<Void> recordChange(AccountChange change, Account account) {
+        Shard shard = shardedFiles.forUsername(account.getUsername());
+        account.markDirty();
+        shard.addDirty(account);
+        flushScheduler.onChange();
+
+        return shard.append(change, account);
+    }
+
+    /**
+     * Asks the flush scheduler for a flush and waits for it. A flush already running when this is
+     * called does not count, as it may have missed the latest changes.
+     */
+    void flush() {
+        flushScheduler.flushAndWait();
+    }
+
+    /**
+     * Flushes every shard, in parallel, and compacts the delta files of the shards that have too many.
+     * See {@link Shard#flush()}. Only ever run by the flush scheduler.
+     */
+    private void flushShards() {
+        forEachShard(shard -> {
+            shard.flush();
+            AccountFiles accountFiles = shard.getAccountFiles();
+            if (accountFiles.getDeltaCount() >= COMPACTION_THRESHOLD) {
+                shard.compact();
+                if (accountFiles.getDeltaRecordCount() * MERGE_RATIO > accountFiles.getIndexedCount()) {
+                    shard.merge();
+                }
             }
+        }, FLUSH_FAILED_MESSAGE);
+    }
 
-            Files.write(filePath, result.toString().getBytes(StandardCharsets.UTF_8));
+    private void merge() {
+        forEachShard(Shard::merge, MERGE_FAILED_MESSAGE);
+    }
 
-        } catch (IOException e) {
-            throw new UncheckedIOException("An error has occurred while saving to file", e);
+    /**
+     * Runs the task on every available shard in parallel. A failing shard does not stop the others,
+     * its error is thrown once all of them are done, with the errors of other shards suppressed.
+     */
+    private void forEachShard(ShardTask task, String failureMessage) {
+        List<UncheckedIOException> failures = shardedFiles.getShards().parallelStream()
+            .filter(Shard::isAvailable)
+            .map(shard -> {
+                try {
+                    task.run(shard);
+                    return null;
+                } catch (IOException e) {
+                    return new UncheckedIOException(String.format(SHARD_FAILED_MESSAGE, failureMessage,
+                        shard.getPath()), e);
+                }
+            })
+            .filter(Objects::nonNull)
+            .toList();
+
+        if (!failures.isEmpty()) {
+            UncheckedIOException failure = failures.getFirst();
+            failures.stream().skip(1).forEach(failure::addSuppressed);
+            throw failure;
         }
     }
 
     public void shutdownScheduler(Set<Account> accounts) {
-        scheduler.shutdownNow();
-        saveData(accounts);
+        updateData(accounts);
+        close();
+    }
+
+    /**
+     * Stops the flushes and closes the files without merging, as a crash would leave them,
+     * so the next instance opened on them replays the logs
+     */
+    void close() {
+        flushScheduler.close();
+
+        forEachShard(Shard::close, CLOSE_FAILED_MESSAGE);
+    }
+
+    private void createParentDirectory() throws IOException {
+        if (filePath.getParent() != null && !Files.exists(filePath.getParent())) {
+            Files.createDirectories(filePath.getParent());
+        }
     }
 }
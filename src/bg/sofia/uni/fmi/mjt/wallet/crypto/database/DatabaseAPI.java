@@ -2,7 +2,9 @@ package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
 
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
 
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 public interface DatabaseAPI {
 
@@ -14,7 +16,44 @@ public interface DatabaseAPI {
     void updateData(Set<Account> accounts);
 
     /**
-     * Shuts the scheduler down and then saves to file
+     * Looks the account up, reading it from disk if it is not in memory
+     *
+     * @return the account with the given username or null if there is none
+     */
+    Account get(String username);
+
+    /**
+     * Stores the account under its username, replacing the stored one, and logs it like a change
+     */
+    void put(Account account);
+
+    /**
+     * Deletes the account with the given username from memory and from disk
+     *
+     * @return true if there was an account with the username
+     */
+    boolean delete(String username);
+
+    /**
+     * @return the accounts with usernames from fromUsername, inclusive, to toUsername, exclusive,
+     *     in username order. A null bound leaves that side of the range open.
+     */
+    List<Account> scan(String fromUsername, String toUsername);
+
+    /**
+     * Appends the current state of the account to the log and marks it for the next flush,
+     * so the change survives a restart without rewriting the whole database. Changes are forced to disk
+     * in batches, so the caller should acknowledge the change only once the returned future completes,
+     * and wait for it after releasing the account's lock.
+     *
+     * @param change  What was changed in the account
+     * @param account The changed account, the caller must hold its lock
+     * @return a future completed once the change is durable
+     */
+    CompletableFuture<Void> recordChange(AccountChange change, Account account);
+
+    /**
+     * Saves to file and then stops the flush scheduler
      *
      * @param accounts Accounts to be added or updated in the database
      */
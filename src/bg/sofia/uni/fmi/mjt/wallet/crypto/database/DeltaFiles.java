@@ -0,0 +1,307 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Sorted {@link Segment} files holding only the accounts that changed since the last merge.
+ * Every flush writes a new file named {@code <base>.delta.<sequence>}. Later files win over earlier
+ * ones and all of them win over the base file, until a merge folds them into the base file.
+ * Compaction merges all delta files into one, so a lookup never checks more than a few of them.
+ * Files are written with a {@link SnapshotWriter}, so a crash never leaves a partial file behind.
+ * Callers serialize writes, compactions and merges, lookups are safe at any time.
+ */
+class DeltaFiles implements AutoCloseable {
+
+    private static final String DELTA_SUFFIX = ".delta.";
+
+    private final Path basePath;
+    private final String deltaPrefix;
+    private final ReadWriteLock segmentsLock;
+    private List<Segment> segments;
+    private long nextSequence;
+
+    DeltaFiles(Path basePath) throws IOException {
+        this.basePath = basePath;
+        this.deltaPrefix = basePath.getFileName() + DELTA_SUFFIX;
+        this.segmentsLock = new ReentrantReadWriteLock();
+        this.segments = new ArrayList<>();
+
+        for (Path delta : findDeltas()) {
+            segments.add(0, Segment.open(delta));
+        }
+    }
+
+    int count() {
+        return getSegments().size();
+    }
+
+    long recordCount() {
+        return getSegments().stream().mapToLong(Segment::count).sum();
+    }
+
+    /**
+     * @return the latest record of the account in the delta files, a tombstone if it was deleted,
+     *     or null if it is not in any of them
+     */
+    String find(String username) throws IOException {
+        Lock lock = segmentsLock.readLock();
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                String record = segment.find(username);
+                if (record != null) {
+                    return record;
+                }
+            }
+
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Passes the records with usernames in the range, newest file first, so the first record passed
+     * for a username is its latest one. A null bound leaves that side of the range open.
+     */
+    void scan(String fromUsername, String toUsername, SnapshotReader.RecordConsumer consumer) throws IOException {
+        Lock lock = segmentsLock.readLock();
+        lock.lock();
+        try {
+            for (Segment segment : segments) {
+                scan(segment, fromUsername, toUsername, consumer);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Writes the records, sorted by username, to a new delta file. The file only becomes visible once it is complete.
+     */
+    void write(Iterator<String> sortedRecords) throws IOException {
+        Segment written;
+        try (Segment.Writer writer = new Segment.Writer(nextPath())) {
+            while (sortedRecords.hasNext()) {
+                writer.write(sortedRecords.next());
+            }
+            written = writer.commit();
+        }
+
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.add(0, written);
+            segments = updated;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merges all delta files into a new one holding the latest record of every account, tombstones included,
+     * as the base file may still hold the deleted accounts. The files are streamed, one record of each at a time.
+     */
+    void compact() throws IOException {
+        List<Segment> compacted = getSegments();
+        if (compacted.size() < 2) {
+            return;
+        }
+
+        Segment merged;
+        try (Segment.Writer writer = new Segment.Writer(nextPath())) {
+            mergeSorted(compacted, writer::write);
+            merged = writer.commit();
+        }
+
+        replace(compacted, merged);
+    }
+
+    /**
+     * Rewrites the base file with the latest record of every account, leaving out the deleted ones.
+     * Only the delta records are kept in memory, the base file is streamed. The delta files can still
+     * be read until they are passed to {@link #remove(List)}, once the new base file can be read.
+     *
+     * @return the merged delta files
+     */
+    List<Segment> merge() throws IOException {
+        List<Segment> merged = getSegments();
+        if (merged.isEmpty()) {
+            return merged;
+        }
+
+        Map<String, String> latest = new HashMap<>();
+        for (Segment segment : merged) {
+            scan(segment, null, null, record -> latest.putIfAbsent(Segment.usernameOf(record), record));
+        }
+
+        try (SnapshotWriter writer = new SnapshotWriter(basePath)) {
+            if (Files.exists(basePath)) {
+                SnapshotReader.read(basePath, record -> {
+                    String updated = latest.remove(Segment.usernameOf(record));
+                    if (updated == null) {
+                        writer.write(record);
+                    } else if (!Segment.isTombstone(updated)) {
+                        writer.write(updated);
+                    }
+                });
+            }
+            for (String record : latest.values()) {
+                if (!Segment.isTombstone(record)) {
+                    writer.write(record);
+                }
+            }
+            writer.commit();
+        }
+
+        return merged;
+    }
+
+    /**
+     * Deletes the merged delta files
+     */
+    void remove(List<Segment> merged) throws IOException {
+        replace(merged, null);
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Segment segment : getSegments()) {
+            segment.close();
+        }
+    }
+
+    private List<Segment> getSegments() {
+        Lock lock = segmentsLock.readLock();
+        lock.lock();
+        try {
+            return List.copyOf(segments);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Swaps the given delta files for the replacement, if there is one, and deletes them
+     * once no lookup is reading them
+     */
+    private void replace(List<Segment> replaced, Segment replacement) throws IOException {
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            List<Segment> updated = new ArrayList<>(segments);
+            updated.removeAll(replaced);
+            if (replacement != null) {
+                updated.add(replacement);
+            }
+            segments = updated;
+
+            for (Segment segment : replaced) {
+                segment.delete();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static void scan(Segment segment, String fromUsername, String toUsername,
+                             SnapshotReader.RecordConsumer consumer) throws IOException {
+        try (Segment.Cursor cursor = segment.cursor(fromUsername)) {
+            while (cursor.next()) {
+                String username = cursor.username();
+                if (toUsername != null && username.compareTo(toUsername) >= 0) {
+                    return;
+                }
+                if (fromUsername == null || username.compareTo(fromUsername) >= 0) {
+                    consumer.accept(cursor.record());
+                }
+            }
+        }
+    }
+
+    /**
+     * Merges sorted files into one sorted stream, passing only the record of the newest file for every username
+     */
+    private static void mergeSorted(List<Segment> newestFirst, SnapshotReader.RecordConsumer consumer)
+        throws IOException {
+        List<Segment.Cursor> cursors = new ArrayList<>();
+        PriorityQueue<Integer> heads = new PriorityQueue<>(
+            Comparator.comparing((Integer i) -> cursors.get(i).username()).thenComparing(i -> i));
+
+        try {
+            for (Segment segment : newestFirst) {
+                cursors.add(segment.cursor(null));
+                if (cursors.getLast().next()) {
+                    heads.add(cursors.size() - 1);
+                }
+            }
+
+            String lastUsername = null;
+            while (!heads.isEmpty()) {
+                int head = heads.poll();
+                Segment.Cursor cursor = cursors.get(head);
+                if (!cursor.username().equals(lastUsername)) {
+                    lastUsername = cursor.username();
+                    consumer.accept(cursor.record());
+                }
+                if (cursor.next()) {
+                    heads.add(head);
+                }
+            }
+        } finally {
+            for (Segment.Cursor cursor : cursors) {
+                cursor.close();
+            }
+        }
+    }
+
+    private Path nextPath() {
+        return basePath.resolveSibling(deltaPrefix + nextSequence++);
+    }
+
+    private List<Path> findDeltas() throws IOException {
+        List<Path> deltas = new ArrayList<>();
+        Path directory = basePath.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return deltas;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(file -> file.getFileName().toString().startsWith(deltaPrefix))
+                .sorted(Comparator.comparingLong(this::sequenceOf))
+                .forEach(file -> {
+                    if (sequenceOf(file) < 0) {
+                        file.toFile().delete();
+                    } else {
+                        deltas.add(file);
+                        nextSequence = sequenceOf(file) + 1;
+                    }
+                });
+        }
+
+        return deltas;
+    }
+
+    private long sequenceOf(Path delta) {
+        String sequence = delta.getFileName().toString().substring(deltaPrefix.length());
+        try {
+            return Long.parseLong(sequence);
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,231 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+/**
+ * Runs every flush of a database on a single thread, so flushes never overlap. The time between
+ * flushes follows the write rate: it is picked so that a flush writes about the target number of
+ * changes, within the given bounds, and a flush starts early once that many changes are waiting.
+ * Flushes asked for while one is running are all served by the next one.
+ */
+class FlushScheduler implements AutoCloseable {
+
+    private static final String THREAD_NAME = "flush-scheduler";
+    private static final String CLOSED_MESSAGE = "The flush scheduler is closed";
+    private static final double RATE_SMOOTHING = 0.3;
+    private static final double NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final Runnable flushTask;
+    private final Consumer<RuntimeException> failureHandler;
+    private final long minIntervalNanos;
+    private final long maxIntervalNanos;
+    private final int targetChanges;
+    private final Lock lock;
+    private final Condition flushDue;
+    private final AtomicLong pendingChanges;
+    private final AtomicLong flushes;
+    private final AtomicLong requests;
+    private final AtomicLong totalNanos;
+    private final AtomicLong maxNanos;
+    private final Thread thread;
+    private CompletableFuture<Void> requested;
+    private boolean isClosed;
+    private double changesPerSecond;
+    private volatile long intervalNanos;
+    private volatile long lastNanos;
+
+    /**
+     * @param flushTask      Writes the changes, throwing if it fails
+     * @param failureHandler Gets the failures of the flushes, including the ones nobody asked for
+     * @param targetChanges  Number of changes a flush should write
+     */
+    FlushScheduler(Runnable flushTask, Consumer<RuntimeException> failureHandler, long minIntervalNanos,
+                   long maxIntervalNanos, int targetChanges) {
+        this.flushTask = flushTask;
+        this.failureHandler = failureHandler;
+        this.minIntervalNanos = minIntervalNanos;
+        this.maxIntervalNanos = maxIntervalNanos;
+        this.targetChanges = targetChanges;
+        this.lock = new ReentrantLock();
+        this.flushDue = lock.newCondition();
+        this.pendingChanges = new AtomicLong();
+        this.flushes = new AtomicLong();
+        this.requests = new AtomicLong();
+        this.totalNanos = new AtomicLong();
+        this.maxNanos = new AtomicLong();
+        this.intervalNanos = maxIntervalNanos;
+        this.thread = Thread.ofPlatform().name(THREAD_NAME).daemon().start(this::runFlushes);
+    }
+
+    /**
+     * Counts a recorded change, starting the next flush early once the target number of changes is waiting
+     */
+    void onChange() {
+        if (pendingChanges.incrementAndGet() == targetChanges) {
+            signal();
+        }
+    }
+
+    /**
+     * @return a future completed once a flush that started after this call is done, or completed
+     *     exceptionally if it failed or the scheduler is closed
+     */
+    CompletableFuture<Void> requestFlush() {
+        lock.lock();
+        try {
+            if (isClosed) {
+                return CompletableFuture.failedFuture(new IllegalStateException(CLOSED_MESSAGE));
+            }
+
+            requests.incrementAndGet();
+            if (requested == null) {
+                requested = new CompletableFuture<>();
+                flushDue.signal();
+            }
+            return requested;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Asks for a flush and waits for it, throwing its failure
+     */
+    void flushAndWait() {
+        try {
+            requestFlush().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    FlushStats getStats() {
+        return new FlushStats(flushes.get(), requests.get(), totalNanos.get(), maxNanos.get(), lastNanos,
+            intervalNanos);
+    }
+
+    /**
+     * Runs the flushes asked for so far and stops the thread. Later requests fail.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            isClosed = true;
+            flushDue.signal();
+        } finally {
+            lock.unlock();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void runFlushes() {
+        long lastStart = System.nanoTime();
+        while (true) {
+            CompletableFuture<Void> batch;
+            lock.lock();
+            try {
+                if (!awaitFlushDue(lastStart) && requested == null) {
+                    return;
+                }
+
+                batch = requested;
+                requested = null;
+            } finally {
+                lock.unlock();
+            }
+
+            long start = System.nanoTime();
+            adaptInterval(pendingChanges.getAndSet(0), start - lastStart);
+            lastStart = start;
+            flush(batch, start);
+        }
+    }
+
+    /**
+     * Waits until a flush is asked for, enough changes are waiting or the interval has passed
+     *
+     * @return false if the scheduler was closed meanwhile
+     */
+    private boolean awaitFlushDue(long lastStart) {
+        try {
+            while (!isClosed && requested == null && pendingChanges.get() < targetChanges) {
+                long remaining = lastStart + intervalNanos - System.nanoTime();
+                if (remaining <= 0) {
+                    break;
+                }
+                flushDue.awaitNanos(remaining);
+            }
+        } catch (InterruptedException e) {
+            isClosed = true;
+        }
+
+        return !isClosed;
+    }
+
+    /**
+     * The flush is counted before the waiting callers are woken, so they see it in the stats
+     */
+    private void flush(CompletableFuture<Void> batch, long start) {
+        RuntimeException failure = null;
+        try {
+            flushTask.run();
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+
+        long duration = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        totalNanos.addAndGet(duration);
+        maxNanos.accumulateAndGet(duration, Math::max);
+        lastNanos = duration;
+
+        if (failure != null) {
+            failureHandler.accept(failure);
+        }
+        if (batch != null) {
+            if (failure == null) {
+                batch.complete(null);
+            } else {
+                batch.completeExceptionally(failure);
+            }
+        }
+    }
+
+    /**
+     * Keeps a moving average of the write rate and picks the interval in which the target number
+     * of changes is recorded at that rate
+     */
+    private void adaptInterval(long changes, long elapsedNanos) {
+        double rate = changes * NANOS_PER_SECOND / Math.max(1, elapsedNanos);
+        changesPerSecond += RATE_SMOOTHING * (rate - changesPerSecond);
+
+        long interval = changesPerSecond == 0 ? maxIntervalNanos
+            : (long) Math.min(maxIntervalNanos, targetChanges / changesPerSecond * NANOS_PER_SECOND);
+        intervalNanos = Math.clamp(interval, minIntervalNanos, maxIntervalNanos);
+    }
+
+    private void signal() {
+        lock.lock();
+        try {
+            flushDue.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+/**
+ * Counters of the flushes of a {@link FlushScheduler} since it was started
+ *
+ * @param flushes         Number of flushes run
+ * @param requests        Number of flushes asked for, served by fewer flushes when they arrived together
+ * @param totalNanos      Sum of the durations of all flushes
+ * @param maxNanos        Longest flush
+ * @param lastNanos       Duration of the latest flush
+ * @param intervalNanos   Current time between flushes, following the write rate
+ */
+public record FlushStats(long flushes, long requests, long totalNanos, long maxNanos, long lastNanos,
+                         long intervalNanos) {
+
+    public long averageNanos() {
+        return flushes == 0 ? 0 : totalNanos / flushes;
+    }
+}
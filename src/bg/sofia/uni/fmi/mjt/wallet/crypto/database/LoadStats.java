@@ -0,0 +1,12 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+/**
+ * What opening a {@link Database} indexed and how long it took
+ *
+ * @param accounts  Number of accounts indexed in the available shards
+ * @param bytes     Size of the indexed files
+ * @param shards    Number of shards, including the unavailable ones
+ * @param loadNanos Time taken to open all shards
+ */
+public record LoadStats(long accounts, long bytes, int shards, long loadNanos) {
+}
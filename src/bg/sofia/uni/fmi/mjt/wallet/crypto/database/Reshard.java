@@ -0,0 +1,134 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Offline tool that splits the stored accounts into another number of shards. It must be run while
+ * the server is stopped: {@code Reshard <accounts file> <shard count>}.
+ *
+ * <p>Every current shard is recovered from its log and merged into its base file, the base files are
+ * streamed into the base files of the new layout and the new layout is stored, in a single rename, before
+ * the files of the old one are deleted. Files of two layouts have different names, so a run stopped at
+ * any point leaves the old layout or the new one complete, and can simply be run again.
+ */
+public final class Reshard {
+
+    private static final int MAX_BATCH_RECORDS = 256;
+    private static final String USAGE_MESSAGE = "Usage: Reshard <accounts file> <shard count>";
+    private static final String UNCHANGED_MESSAGE = "The accounts are already stored in %d shards";
+    private static final String RESHARDED_MESSAGE = "Moved %d accounts from %d shards to %d shards";
+    private static final String FAILED_MESSAGE = "An error has occurred while re-sharding the accounts: ";
+
+    private Reshard() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.out.println(USAGE_MESSAGE);
+            return;
+        }
+
+        try {
+            Path filePath = Paths.get(args[0]);
+            int shardCount = Integer.parseInt(args[1]);
+            int previousCount = ShardLayout.stored(filePath).shardCount();
+            if (previousCount == shardCount) {
+                System.out.println(String.format(UNCHANGED_MESSAGE, shardCount));
+                return;
+            }
+
+            long moved = reshard(filePath, shardCount);
+            System.out.println(String.format(RESHARDED_MESSAGE, moved, previousCount, shardCount));
+        } catch (IOException | IllegalArgumentException e) {
+            System.out.println(FAILED_MESSAGE + e.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of accounts moved to the new shards
+     * @throws IOException if any current shard cannot be read, in which case nothing is changed
+     */
+    static long reshard(Path filePath, int shardCount) throws IOException {
+        ShardLayout previous = ShardLayout.stored(filePath);
+        ShardLayout next = new ShardLayout(filePath, shardCount);
+        if (previous.shardCount() == next.shardCount()) {
+            return 0;
+        }
+
+        for (int shard = 0; shard < previous.shardCount(); shard++) {
+            mergeLogged(previous.shardPath(shard));
+        }
+        for (Path stale : next.findFiles()) {
+            Files.delete(stale);
+        }
+
+        long moved = 0;
+        List<SnapshotWriter> writers = new ArrayList<>();
+        try {
+            for (int shard = 0; shard < next.shardCount(); shard++) {
+                writers.add(new SnapshotWriter(next.shardPath(shard)));
+            }
+            for (int shard = 0; shard < previous.shardCount(); shard++) {
+                moved += copy(previous.shardPath(shard), next, writers);
+            }
+            for (SnapshotWriter writer : writers) {
+                writer.commit();
+            }
+        } finally {
+            for (SnapshotWriter writer : writers) {
+                writer.close();
+            }
+        }
+
+        next.store();
+        for (Path replaced : previous.findFiles()) {
+            Files.delete(replaced);
+        }
+
+        return moved;
+    }
+
+    /**
+     * Applies the log of the shard and merges its delta files, so its base file holds all of its accounts
+     */
+    private static void mergeLogged(Path shardPath) throws IOException {
+        Shard shard = Shard.open(shardPath, MAX_BATCH_RECORDS, 0, e -> { });
+        if (!shard.isAvailable()) {
+            throw shard.getFailure();
+        }
+
+        try {
+            shard.restore((change, account) -> {
+                account.markDirty();
+                if (change == AccountChange.DELETE) {
+                    shard.deleteStored(account);
+                } else {
+                    shard.addDirty(account);
+                }
+            });
+            shard.flush();
+            shard.merge();
+        } finally {
+            shard.close();
+        }
+    }
+
+    private static long copy(Path shardPath, ShardLayout next, List<SnapshotWriter> writers) throws IOException {
+        if (!Files.exists(shardPath)) {
+            return 0;
+        }
+
+        long[] copied = {0};
+        SnapshotReader.read(shardPath, record -> {
+            writers.get(next.shardOf(Segment.usernameOf(record))).write(record);
+            copied[0]++;
+        });
+
+        return copied[0];
+    }
+}
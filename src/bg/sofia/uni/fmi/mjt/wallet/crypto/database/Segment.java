@@ -0,0 +1,273 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable file of account records sorted by username, written through a {@link Writer}. The username
+ * and offset of every 16th record, the sparse index, and a {@link BloomFilter} are kept in memory, so a
+ * lookup reads a single block of records and most lookups of usernames that are not in the file read
+ * nothing. Deleted accounts are kept as tombstones, which shadow their records in older files.
+ */
+final class Segment implements AutoCloseable {
+
+    static final String TOMBSTONE = "-";
+
+    private static final int INDEX_INTERVAL = 16;
+    private static final String DELIMITER = ";";
+    private static final char NEW_LINE = '\n';
+
+    private final Path path;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long dataEnd;
+    private final int count;
+    private final BloomFilter bloomFilter;
+
+    private Segment(Path path, IndexBuilder index) throws IOException {
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        this.indexKeys = Arrays.copyOf(index.keys, index.blocks);
+        this.indexOffsets = Arrays.copyOf(index.offsets, index.blocks);
+        this.dataEnd = index.dataEnd;
+        this.count = index.count;
+        this.bloomFilter = new BloomFilter(index.hashes, index.count);
+    }
+
+    /**
+     * Opens a segment file, building its sparse index and bloom filter. Delta files written before
+     * they were sorted are sorted and rewritten in place.
+     */
+    static Segment open(Path path) throws IOException {
+        IndexBuilder index = new IndexBuilder();
+        SnapshotReader.readWithOffsets(path, index::add);
+        if (index.isSorted) {
+            return new Segment(path, index);
+        }
+
+        Map<String, String> sorted = new TreeMap<>();
+        SnapshotReader.read(path, record -> sorted.put(usernameOf(record), record));
+        try (Writer writer = new Writer(path)) {
+            for (String record : sorted.values()) {
+                writer.write(record);
+            }
+            return writer.commit();
+        }
+    }
+
+    static String tombstone(String username) {
+        return TOMBSTONE + DELIMITER + username;
+    }
+
+    static boolean isTombstone(String record) {
+        return record.startsWith(TOMBSTONE + DELIMITER);
+    }
+
+    static String usernameOf(String record) {
+        int start = record.indexOf(DELIMITER) + 1;
+        int end = record.indexOf(DELIMITER, start);
+
+        return end < 0 ? record.substring(start) : record.substring(start, end);
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    int count() {
+        return count;
+    }
+
+    /**
+     * @return the record of the account, a tombstone if it was deleted, or null if the file does not hold it
+     */
+    String find(String username) throws IOException {
+        if (!bloomFilter.mightContain(username)) {
+            return null;
+        }
+
+        int block = floorBlock(username);
+        if (block < 0) {
+            return null;
+        }
+
+        long start = indexOffsets[block];
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : dataEnd;
+        ByteBuffer bytes = ByteBuffer.allocate((int) (end - start));
+        while (bytes.hasRemaining()) {
+            if (channel.read(bytes, start + bytes.position()) < 0) {
+                break;
+            }
+        }
+
+        for (String record : new String(bytes.array(), 0, bytes.position(), StandardCharsets.UTF_8)
+            .split(String.valueOf(NEW_LINE))) {
+            int compared = usernameOf(record).compareTo(username);
+            if (compared == 0) {
+                return record;
+            }
+            if (compared > 0) {
+                return null;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Opens a cursor over the records in username order, starting at the block that may hold the given
+     * username, or at the first record if it is null. Records before the username may come first.
+     */
+    Cursor cursor(String fromUsername) throws IOException {
+        int block = fromUsername == null ? 0 : Math.max(0, floorBlock(fromUsername));
+        long start = indexOffsets.length == 0 ? dataEnd : indexOffsets[block];
+
+        return new Cursor(FileChannel.open(path, StandardOpenOption.READ).position(start), dataEnd - start);
+    }
+
+    /**
+     * Closes the file and deletes it, once no lookup can reach the segment anymore
+     */
+    void delete() throws IOException {
+        close();
+        Files.deleteIfExists(path);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private int floorBlock(String username) {
+        int position = Arrays.binarySearch(indexKeys, username);
+
+        return position >= 0 ? position : -position - 2;
+    }
+
+    /**
+     * Writes a new segment file. Records must be given in strictly increasing username order.
+     */
+    static final class Writer implements AutoCloseable {
+
+        private final Path path;
+        private final SnapshotWriter writer;
+        private final IndexBuilder index;
+
+        Writer(Path path) throws IOException {
+            this.path = path;
+            this.writer = new SnapshotWriter(path);
+            this.index = new IndexBuilder();
+        }
+
+        void write(String record) throws IOException {
+            index.add(record, writer.size());
+            if (!index.isSorted) {
+                throw new IllegalArgumentException("Segment records must be sorted by username: " + record);
+            }
+
+            writer.write(record);
+        }
+
+        Segment commit() throws IOException {
+            writer.commit();
+
+            return new Segment(path, index);
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * Reads records one at a time, for range scans and for merging segments
+     */
+    static final class Cursor implements AutoCloseable {
+
+        private final FileChannel channel;
+        private final BufferedReader reader;
+        private long remaining;
+        private String record;
+
+        private Cursor(FileChannel channel, long length) {
+            this.channel = channel;
+            this.reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8));
+            this.remaining = length;
+        }
+
+        /**
+         * @return true if there was another record, which {@link #record()} then returns
+         */
+        boolean next() throws IOException {
+            record = remaining > 0 ? reader.readLine() : null;
+            if (record == null) {
+                return false;
+            }
+
+            remaining -= record.getBytes(StandardCharsets.UTF_8).length + 1;
+            return true;
+        }
+
+        String record() {
+            return record;
+        }
+
+        String username() {
+            return usernameOf(record);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+            channel.close();
+        }
+    }
+
+    private static final class IndexBuilder {
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private String[] keys = new String[INITIAL_CAPACITY];
+        private long[] offsets = new long[INITIAL_CAPACITY];
+        private long[] hashes = new long[INITIAL_CAPACITY];
+        private int blocks;
+        private int count;
+        private long dataEnd;
+        private String lastUsername;
+        private boolean isSorted = true;
+
+        private void add(String record, long offset) {
+            String username = usernameOf(record);
+            if (lastUsername != null && lastUsername.compareTo(username) >= 0) {
+                isSorted = false;
+            }
+            lastUsername = username;
+
+            if (count % INDEX_INTERVAL == 0) {
+                if (blocks == keys.length) {
+                    keys = Arrays.copyOf(keys, blocks * 2);
+                    offsets = Arrays.copyOf(offsets, blocks * 2);
+                }
+                keys[blocks] = username;
+                offsets[blocks++] = offset;
+            }
+            if (count == hashes.length) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+            hashes[count++] = BloomFilter.hash(username);
+            dataEnd = offset + record.getBytes(StandardCharsets.UTF_8).length + 1;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * The accounts of one shard: their {@link AccountFiles}, their {@link WriteAheadLog} and the dirty ones
+ * waiting for the next flush. Shards are flushed, merged and recovered independently of each other.
+ * A shard whose files or log cannot be read is unavailable: every use of it fails with the error met
+ * while opening it, and its files are left untouched, while the other shards keep working.
+ */
+class Shard implements AutoCloseable {
+
+    private static final String LOG_SUFFIX = ".wal";
+    private static final String UNREADABLE_MESSAGE = "The files of shard %s could not be read";
+
+    private record LoggedChange(AccountChange change, Account account) {
+    }
+
+    private final Path path;
+    private final AccountFiles accountFiles;
+    private final WriteAheadLog writeAheadLog;
+    private final IOException failure;
+    private final Map<String, Account> dirtyAccounts;
+    private final Lock saveLock;
+    private List<LoggedChange> logged;
+
+    private Shard(Path path, AccountFiles accountFiles, WriteAheadLog writeAheadLog, List<LoggedChange> logged,
+                  IOException failure) {
+        this.path = path;
+        this.accountFiles = accountFiles;
+        this.writeAheadLog = writeAheadLog;
+        this.logged = logged;
+        this.failure = failure;
+        this.dirtyAccounts = new ConcurrentHashMap<>();
+        this.saveLock = new ReentrantLock();
+    }
+
+    /**
+     * Indexes the base file, opens the delta files and the log and reads the changes in the log,
+     * which {@link #restore(BiConsumer)} passes on once every shard is open
+     *
+     * @param logFailureHandler Gets the failures of writing the log, see {@link WriteAheadLog}
+     * @return the opened shard, or an unavailable one if any of its files could not be read
+     */
+    static Shard open(Path path, int maxBatchRecords, long maxBatchDelayNanos,
+                      Consumer<IOException> logFailureHandler) {
+        AccountFiles accountFiles = null;
+        WriteAheadLog writeAheadLog = null;
+        try {
+            accountFiles = new AccountFiles(path);
+            writeAheadLog = new WriteAheadLog(path.resolveSibling(path.getFileName() + LOG_SUFFIX),
+                maxBatchRecords, maxBatchDelayNanos, logFailureHandler);
+            List<LoggedChange> logged = new ArrayList<>();
+            writeAheadLog.replay((change, account) -> logged.add(new LoggedChange(change, account)));
+
+            return new Shard(path, accountFiles, writeAheadLog, logged, null);
+        } catch (IOException | RuntimeException e) {
+            IOException failure = new IOException(String.format(UNREADABLE_MESSAGE, path), e);
+            try {
+                if (writeAheadLog != null) {
+                    writeAheadLog.close();
+                }
+                if (accountFiles != null) {
+                    accountFiles.close();
+                }
+            } catch (IOException closeFailure) {
+                failure.addSuppressed(closeFailure);
+            }
+
+            return new Shard(path, null, null, List.of(), failure);
+        }
+    }
+
+    Path getPath() {
+        return path;
+    }
+
+    boolean isAvailable() {
+        return failure == null;
+    }
+
+    IOException getFailure() {
+        return failure;
+    }
+
+    /**
+     * @throws UncheckedIOException if the shard is unavailable
+     */
+    AccountFiles getAccountFiles() {
+        requireAvailable();
+        return accountFiles;
+    }
+
+    CommitStats getCommitStats() {
+        return isAvailable() ? writeAheadLog.getStats() : new CommitStats(0, 0, 0, 0, 0);
+    }
+
+    /**
+     * Passes the changes read from the log while opening the shard, oldest first, and forgets them
+     */
+    void restore(BiConsumer<AccountChange, Account> consumer) {
+        for (LoggedChange change : logged) {
+            consumer.accept(change.change(), change.account());
+        }
+        logged = List.of();
+    }
+
+    /**
+     * Keeps the account for the next flush. It must be marked dirty before its change is logged.
+     */
+    void addDirty(Account account) {
+        requireAvailable();
+        dirtyAccounts.put(account.getUsername(), account);
+    }
+
+    /**
+     * Drops the account from the next flush and hides its stored records behind a tombstone
+     */
+    void deleteStored(Account account) {
+        requireAvailable();
+        dirtyAccounts.remove(account.getUsername());
+        accountFiles.delete(account.getUsername(), account.getVersion());
+    }
+
+    CompletableFuture<Void> append(AccountChange change, Account account) {
+        requireAvailable();
+        return writeAheadLog.append(change, account);
+    }
+
+    /**
+     * Writes the accounts changed since the last flush, and the evicted ones written back, to a new
+     * delta file and drops the part of the log that it covers. The log is rotated first, so changes recorded
+     * while the delta is written stay in the new log. Accounts are marked dirty before their change is logged,
+     * so every change in the rotated log is picked up here. Account state is copy-on-write, so it is
+     * read without taking the account locks and commands are never paused by a flush.
+     */
+    void flush() throws IOException {
+        requireAvailable();
+        saveLock.lock();
+        try {
+            if (dirtyAccounts.isEmpty() && !accountFiles.hasChanges()) {
+                return;
+            }
+
+            writeAheadLog.rotate();
+            writeDirtyAccounts();
+            accountFiles.flush();
+            writeAheadLog.discardRotated();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    /**
+     * Merges the delta files into one, so lookups check fewer of them
+     */
+    void compact() throws IOException {
+        requireAvailable();
+        saveLock.lock();
+        try {
+            accountFiles.compact();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    void merge() throws IOException {
+        requireAvailable();
+        saveLock.lock();
+        try {
+            accountFiles.merge();
+        } finally {
+            saveLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isAvailable()) {
+            writeAheadLog.close();
+            accountFiles.close();
+        }
+    }
+
+    /**
+     * Moves the dirty accounts to the memtable. An account replaced meanwhile by another instance with
+     * the same username stays for the next flush.
+     */
+    private void writeDirtyAccounts() {
+        for (Map.Entry<String, Account> dirty : dirtyAccounts.entrySet()) {
+            Account account = dirty.getValue();
+            if (dirtyAccounts.remove(dirty.getKey(), account) && account.isDirty()) {
+                accountFiles.writeBack(account);
+            }
+        }
+    }
+
+    private void requireAvailable() {
+        if (failure != null) {
+            throw new UncheckedIOException(failure.getMessage(), failure);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * How the accounts file is split into shards. Accounts are picked by username hash. A single shard keeps
+ * the plain file names, so files written before sharding are read as they are, and more shards are named
+ * {@code <file>.shard-<i>-of-<count>}, so the files of two layouts never collide while re-sharding.
+ * The shard count is kept in {@code <file>.shards}, a snapshot holding a single record, and is 1 without it.
+ *
+ * @param filePath   The accounts file the shards are named after
+ * @param shardCount Number of shards
+ */
+record ShardLayout(Path filePath, int shardCount) {
+
+    private static final String MANIFEST_SUFFIX = ".shards";
+    private static final String SHARD_INFIX = ".shard-";
+    private static final String COUNT_INFIX = "-of-";
+    private static final String[] FILE_SUFFIXES = {".wal", ".delta.", ".tmp"};
+
+    ShardLayout {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("The shard count must be positive, but was " + shardCount);
+        }
+    }
+
+    /**
+     * @return the layout written to the manifest, or a single shard if there is none
+     */
+    static ShardLayout stored(Path filePath) throws IOException {
+        Path manifest = manifestOf(filePath);
+        if (!Files.exists(manifest)) {
+            return new ShardLayout(filePath, 1);
+        }
+
+        List<String> records = new ArrayList<>();
+        SnapshotReader.read(manifest, records::add);
+        if (records.size() != 1) {
+            throw new IOException("Expected the shard count in " + manifest + ", but found " + records);
+        }
+
+        try {
+            return new ShardLayout(filePath, Integer.parseInt(records.getFirst().trim()));
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Expected the shard count in " + manifest + ", but found " + records, e);
+        }
+    }
+
+    /**
+     * @return true if there is neither a manifest nor any file of a single shard
+     */
+    static boolean isNew(Path filePath) throws IOException {
+        return !Files.exists(manifestOf(filePath)) && new ShardLayout(filePath, 1).findFiles().isEmpty();
+    }
+
+    /**
+     * Makes this the stored layout, replacing the manifest in a single rename
+     */
+    void store() throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(manifestOf(filePath))) {
+            writer.write(String.valueOf(shardCount));
+            writer.commit();
+        }
+    }
+
+    int shardOf(String username) {
+        int hash = username.hashCode();
+
+        return Math.floorMod(hash ^ (hash >>> 16), shardCount);
+    }
+
+    Path shardPath(int shard) {
+        if (shardCount == 1) {
+            return filePath;
+        }
+
+        return filePath.resolveSibling(filePath.getFileName() + SHARD_INFIX + shard + COUNT_INFIX + shardCount);
+    }
+
+    /**
+     * @return every file of the shards: base files, logs, delta files and unfinished snapshots
+     */
+    List<Path> findFiles() throws IOException {
+        List<Path> found = new ArrayList<>();
+        Path directory = filePath.toAbsolutePath().getParent();
+        if (!Files.isDirectory(directory)) {
+            return found;
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.filter(this::isShardFile).forEach(found::add);
+        }
+
+        return found;
+    }
+
+    private boolean isShardFile(Path file) {
+        String name = file.getFileName().toString();
+        for (int shard = 0; shard < shardCount; shard++) {
+            String base = shardPath(shard).getFileName().toString();
+            if (name.equals(base)) {
+                return true;
+            }
+            for (String suffix : FILE_SUFFIXES) {
+                if (name.startsWith(base + suffix)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+    private static Path manifestOf(Path filePath) {
+        return filePath.resolveSibling(filePath.getFileName() + MANIFEST_SUFFIX);
+    }
+}
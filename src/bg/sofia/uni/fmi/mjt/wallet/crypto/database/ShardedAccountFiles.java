@@ -0,0 +1,63 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Routes every account to the {@link Shard} its username hashes to. Scans read all shards in parallel
+ * and merge their results, so they fail if any shard is unavailable, while lookups only fail for the
+ * accounts of the unavailable shard.
+ */
+class ShardedAccountFiles implements AccountSource {
+
+    private final ShardLayout layout;
+    private final List<Shard> shards;
+
+    ShardedAccountFiles(ShardLayout layout, List<Shard> shards) {
+        this.layout = layout;
+        this.shards = List.copyOf(shards);
+    }
+
+    List<Shard> getShards() {
+        return shards;
+    }
+
+    Shard forUsername(String username) {
+        return shards.get(layout.shardOf(username));
+    }
+
+    @Override
+    public Account load(String username) {
+        return forUsername(username).getAccountFiles().load(username);
+    }
+
+    /**
+     * An unavailable shard may hold accounts, so it is never taken as empty
+     */
+    @Override
+    public boolean isEmpty() {
+        return shards.stream().allMatch(shard -> shard.isAvailable() && shard.getAccountFiles().isEmpty());
+    }
+
+    @Override
+    public void scan(String fromUsername, String toUsername, Consumer<Account> consumer) {
+        shards.parallelStream()
+            .map(shard -> {
+                List<Account> accounts = new ArrayList<>();
+                shard.getAccountFiles().scan(fromUsername, toUsername, accounts::add);
+                return accounts;
+            })
+            .flatMap(List::stream)
+            .sorted(Comparator.comparing(Account::getUsername))
+            .forEachOrdered(consumer);
+    }
+
+    @Override
+    public void writeBack(Account account) {
+        forUsername(account.getUsername()).getAccountFiles().writeBack(account);
+    }
+}
@@ -0,0 +1,95 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+
+/**
+ * Reads files written by {@link SnapshotWriter}, checking the record count and checksum in the footer.
+ * A file starting with the header must end with the footer, so one cut off at a record boundary is
+ * rejected. Files without the header are the legacy format, where the footer is checked if present.
+ */
+final class SnapshotReader {
+
+    private static final int COUNT_INDEX = 1;
+    private static final int CHECKSUM_INDEX = 2;
+    private static final int HEXADECIMAL = 16;
+
+    @FunctionalInterface
+    interface RecordConsumer {
+        void accept(String record) throws IOException;
+    }
+
+    @FunctionalInterface
+    interface PositionedRecordConsumer {
+        void accept(String record, long offset) throws IOException;
+    }
+
+    private SnapshotReader() {
+    }
+
+    /**
+     * Passes every record of the file to the consumer, in order.
+     *
+     * @throws IOException if the footer does not match the records before it, or is missing after the header
+     */
+    static void read(Path path, RecordConsumer consumer) throws IOException {
+        readWithOffsets(path, (record, offset) -> consumer.accept(record));
+    }
+
+    /**
+     * Like {@link #read(Path, RecordConsumer)}, also passing the offset of every record in the file
+     */
+    static void readWithOffsets(Path path, PositionedRecordConsumer consumer) throws IOException {
+        CRC32 checksum = new CRC32();
+        long recordCount = 0;
+        long offset = 0;
+        boolean hasHeader = false;
+
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long lineOffset = offset;
+                byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+                offset += bytes.length + 1;
+
+                if (lineOffset == 0 && line.equals(SnapshotWriter.HEADER)) {
+                    hasHeader = true;
+                    continue;
+                }
+                if (line.startsWith(SnapshotWriter.FOOTER_PREFIX)) {
+                    verify(path, line, recordCount, checksum.getValue());
+                    return;
+                }
+                if (line.isBlank()) {
+                    continue;
+                }
+
+                checksum.update(bytes);
+                checksum.update(SnapshotWriter.NEW_LINE);
+                recordCount++;
+                consumer.accept(line, lineOffset);
+            }
+        }
+
+        if (hasHeader) {
+            throw missingFooter(path);
+        }
+    }
+
+    static IOException missingFooter(Path path) {
+        return new IOException("Snapshot " + path + " is truncated, its footer is missing");
+    }
+
+    static void verify(Path path, String footer, long recordCount, long checksum) throws IOException {
+        String[] tokens = footer.split(SnapshotWriter.DELIMITER);
+
+        if (Long.parseLong(tokens[COUNT_INDEX]) != recordCount
+            || Long.parseLong(tokens[CHECKSUM_INDEX], HEXADECIMAL) != checksum) {
+            throw new IOException("Snapshot " + path + " is corrupted, its footer does not match its records");
+        }
+    }
+}
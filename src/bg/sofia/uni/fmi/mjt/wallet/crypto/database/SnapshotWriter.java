@@ -0,0 +1,136 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * Streams records into a temporary file next to the target through a fixed size buffer, so memory
+ * use does not depend on the number of records. The file starts with a header naming the format, which
+ * tells readers the footer is required. {@link #commit()} appends a footer with the record count and
+ * the CRC32 of all records, forces the file to disk, renames it over the target and forces the directory,
+ * so the rename survives a crash. Until then the target is left untouched, and closing without a commit
+ * deletes the temporary file.
+ */
+class SnapshotWriter implements AutoCloseable {
+
+    static final String FOOTER_PREFIX = "#snapshot";
+    static final String DELIMITER = ";";
+    static final String HEADER = "#format" + DELIMITER + "2";
+    static final byte NEW_LINE = '\n';
+    static final int HEADER_BYTES = HEADER.length() + 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final byte[] NEW_LINE_BYTES = {NEW_LINE};
+
+    private final Path target;
+    private final Path temporary;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final CRC32 checksum;
+    private long recordCount;
+    private long recordBytes;
+    private boolean isCommitted;
+
+    SnapshotWriter(Path target) throws IOException {
+        this.target = target;
+        this.temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        this.channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING);
+        this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        this.checksum = new CRC32();
+        this.recordBytes = HEADER_BYTES;
+
+        put((HEADER + (char) NEW_LINE).getBytes(StandardCharsets.UTF_8));
+    }
+
+    void write(String record) throws IOException {
+        byte[] bytes = record.getBytes(StandardCharsets.UTF_8);
+        checksum.update(bytes);
+        checksum.update(NEW_LINE);
+        recordCount++;
+        recordBytes += bytes.length + 1;
+
+        put(bytes);
+        put(NEW_LINE_BYTES);
+    }
+
+    /**
+     * @return the number of bytes of the header and the records written so far, which is the offset of
+     *     the next record
+     */
+    long size() {
+        return recordBytes;
+    }
+
+    void commit() throws IOException {
+        put((FOOTER_PREFIX + DELIMITER + recordCount + DELIMITER + Long.toHexString(checksum.getValue())
+            + (char) NEW_LINE).getBytes(StandardCharsets.UTF_8));
+        drain();
+        channel.force(true);
+        channel.close();
+
+        Files.move(temporary, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        isCommitted = true;
+        forceDirectory();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (isCommitted) {
+            return;
+        }
+
+        channel.close();
+        Files.deleteIfExists(temporary);
+    }
+
+    private void put(byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            drain();
+        }
+
+        if (bytes.length > buffer.capacity()) {
+            ByteBuffer large = ByteBuffer.wrap(bytes);
+            while (large.hasRemaining()) {
+                channel.write(large);
+            }
+            return;
+        }
+
+        buffer.put(bytes);
+    }
+
+    /**
+     * Forces the rename to disk. Directories cannot be opened on every platform, there the rename is
+     * left to the file system.
+     */
+    private void forceDirectory() throws IOException {
+        Path directory = target.toAbsolutePath().getParent();
+        FileChannel directoryChannel;
+        try {
+            directoryChannel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            return;
+        }
+
+        try (directoryChannel) {
+            directoryChannel.force(true);
+        }
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,366 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Append-only log of account changes. Every record holds the full state of the changed account,
+ * in the form {@code CHANGE;account csv}, so replaying a record more than once is harmless and
+ * the last record of an account always wins. A {@link AccountChange#DELETE} record holds the last
+ * state of the deleted account.
+ *
+ * <p>Before a snapshot is written the log is rotated: the current file is moved aside and a new one
+ * is started. The rotated file is deleted once the snapshot is on disk, and replayed before the
+ * current one if the process stopped in between.
+ *
+ * <p>Appends are group committed: a committer thread takes the records appended meanwhile, up to
+ * a batch size, writes them and forces the file once for the whole batch, and only then completes
+ * the futures returned by {@link #append(AccountChange, Account)}. When fewer records are pending
+ * it waits up to the batch delay for more, trading a little latency for fewer forces.
+ *
+ * <p>A batch that fails to be written is cut off the file again, so the records after it never follow
+ * a torn line. If even that fails, the log refuses every later append. The failure is passed to the
+ * write failure handler before the waiting callers are told, so the handler can stop the process before
+ * anyone reports a change as failed that a flush may still save.
+ */
+class WriteAheadLog implements AutoCloseable {
+
+    private static final String DELIMITER = ";";
+    private static final byte NEW_LINE = '\n';
+    private static final String ROTATED_SUFFIX = ".compacting";
+    private static final String COMMITTER_THREAD_NAME = "wal-committer";
+    private static final String CLOSED_MESSAGE = "The log is closed";
+    private static final String WRITE_FAILED_MESSAGE = "An error has occurred while writing to the log";
+    private static final String BROKEN_MESSAGE = "The log could not be repaired after a failed write";
+
+    private record PendingRecord(byte[] bytes, CompletableFuture<Void> commit, long appendedNanos) {
+    }
+
+    private final Path logPath;
+    private final Path rotatedPath;
+    private final int maxBatchRecords;
+    private final long maxBatchDelayNanos;
+    private final Consumer<IOException> writeFailureHandler;
+    private final Lock channelLock;
+    private final Lock pendingLock;
+    private final Condition recordsPending;
+    private final Thread committer;
+    private final AtomicLong batches;
+    private final AtomicLong committedRecords;
+    private final AtomicLong totalLatencyNanos;
+    private final AtomicLong maxLatencyNanos;
+    private List<PendingRecord> pending;
+    private boolean isClosed;
+    private volatile IOException brokenBy;
+    private FileChannel channel;
+
+    /**
+     * @param maxBatchRecords    Most records written and forced together
+     * @param maxBatchDelayNanos  Longest time the committer waits for a batch to fill
+     * @param writeFailureHandler Gets the failure of a batch before the callers waiting for it
+     */
+    WriteAheadLog(Path logPath, int maxBatchRecords, long maxBatchDelayNanos,
+                  Consumer<IOException> writeFailureHandler) throws IOException {
+        this.logPath = logPath;
+        this.writeFailureHandler = writeFailureHandler;
+        this.rotatedPath = logPath.resolveSibling(logPath.getFileName() + ROTATED_SUFFIX);
+        this.maxBatchRecords = maxBatchRecords;
+        this.maxBatchDelayNanos = maxBatchDelayNanos;
+        this.channelLock = new ReentrantLock();
+        this.pendingLock = new ReentrantLock();
+        this.recordsPending = pendingLock.newCondition();
+        this.batches = new AtomicLong();
+        this.committedRecords = new AtomicLong();
+        this.totalLatencyNanos = new AtomicLong();
+        this.maxLatencyNanos = new AtomicLong();
+        this.pending = new ArrayList<>();
+        this.channel = open();
+        this.committer = Thread.ofPlatform().name(COMMITTER_THREAD_NAME).daemon().start(this::commitBatches);
+    }
+
+    /**
+     * Queues the current state of the account for the next batch
+     *
+     * @return a future completed once the record is forced to disk, or completed exceptionally if
+     *     writing it failed or the log is closed
+     */
+    CompletableFuture<Void> append(AccountChange change, Account account) {
+        byte[] record = (change.name() + DELIMITER + account.toCSV() + (char) NEW_LINE)
+            .getBytes(StandardCharsets.UTF_8);
+        CompletableFuture<Void> commit = new CompletableFuture<>();
+
+        pendingLock.lock();
+        try {
+            if (isClosed) {
+                return CompletableFuture.failedFuture(new IOException(CLOSED_MESSAGE));
+            }
+            if (brokenBy != null) {
+                return CompletableFuture.failedFuture(new IOException(BROKEN_MESSAGE, brokenBy));
+            }
+
+            pending.add(new PendingRecord(record, commit, System.nanoTime()));
+            if (pending.size() == 1 || pending.size() >= maxBatchRecords) {
+                recordsPending.signal();
+            }
+        } finally {
+            pendingLock.unlock();
+        }
+
+        return commit;
+    }
+
+    CommitStats getStats() {
+        return new CommitStats(batches.get(), committedRecords.get(), maxBatchRecords, totalLatencyNanos.get(),
+            maxLatencyNanos.get());
+    }
+
+    long size() throws IOException {
+        channelLock.lock();
+        try {
+            return channel.size();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the current log aside and starts a new one. Changes recorded from now on
+     * are not covered by the rotated file.
+     */
+    void rotate() throws IOException {
+        channelLock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+            if (Files.exists(rotatedPath)) {
+                appendTo(rotatedPath, logPath);
+                Files.delete(logPath);
+            } else {
+                Files.move(logPath, rotatedPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+            channel = open();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    /**
+     * Deletes the rotated log once a snapshot covering it has been written.
+     */
+    void discardRotated() throws IOException {
+        Files.deleteIfExists(rotatedPath);
+    }
+
+    /**
+     * Passes the change and the account of every complete record to the consumer, oldest first.
+     * An incomplete last record, left by a crash in the middle of a write, is ignored.
+     */
+    void replay(BiConsumer<AccountChange, Account> consumer) throws IOException {
+        replay(rotatedPath, consumer);
+        replay(logPath, consumer);
+    }
+
+    /**
+     * Commits the pending records, stops the committer and closes the file. Later appends fail.
+     */
+    @Override
+    public void close() throws IOException {
+        pendingLock.lock();
+        try {
+            isClosed = true;
+            recordsPending.signal();
+        } finally {
+            pendingLock.unlock();
+        }
+
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        channelLock.lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private void commitBatches() {
+        List<PendingRecord> batch;
+        while ((batch = nextBatch()) != null) {
+            try {
+                write(batch);
+            } catch (IOException e) {
+                writeFailureHandler.accept(e);
+                UncheckedIOException failure = new UncheckedIOException(WRITE_FAILED_MESSAGE, e);
+                batch.forEach(record -> record.commit().completeExceptionally(failure));
+                continue;
+            }
+
+            long committedNanos = System.nanoTime();
+            for (PendingRecord record : batch) {
+                long latency = committedNanos - record.appendedNanos();
+                totalLatencyNanos.addAndGet(latency);
+                maxLatencyNanos.accumulateAndGet(latency, Math::max);
+            }
+            batches.incrementAndGet();
+            committedRecords.addAndGet(batch.size());
+            batch.forEach(record -> record.commit().complete(null));
+        }
+    }
+
+    /**
+     * Waits for records and then for the batch to fill, up to the batch delay from the oldest record
+     *
+     * @return the next batch or null once the log is closed and every record is committed
+     */
+    private List<PendingRecord> nextBatch() {
+        pendingLock.lock();
+        try {
+            while (pending.isEmpty() && !isClosed) {
+                recordsPending.awaitUninterruptibly();
+            }
+            if (pending.isEmpty()) {
+                return null;
+            }
+
+            long deadline = pending.getFirst().appendedNanos() + maxBatchDelayNanos;
+            long remaining;
+            try {
+                while (pending.size() < maxBatchRecords && !isClosed
+                    && (remaining = deadline - System.nanoTime()) > 0) {
+                    recordsPending.awaitNanos(remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            List<PendingRecord> batch = pending;
+            if (batch.size() > maxBatchRecords) {
+                pending = new ArrayList<>(batch.subList(maxBatchRecords, batch.size()));
+                batch = batch.subList(0, maxBatchRecords);
+            } else {
+                pending = new ArrayList<>();
+            }
+
+            return batch;
+        } finally {
+            pendingLock.unlock();
+        }
+    }
+
+    /**
+     * Writes and forces the batch. If that fails, the file is truncated back to its size before the batch.
+     */
+    private void write(List<PendingRecord> batch) throws IOException {
+        ByteBuffer[] buffers = new ByteBuffer[batch.size()];
+        long length = 0;
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = ByteBuffer.wrap(batch.get(i).bytes());
+            length += buffers[i].remaining();
+        }
+
+        channelLock.lock();
+        try {
+            if (brokenBy != null) {
+                throw new IOException(BROKEN_MESSAGE, brokenBy);
+            }
+
+            long batchStart = channel.size();
+            try {
+                for (long written = 0; written < length; ) {
+                    written += channel.write(buffers);
+                }
+                channel.force(false);
+            } catch (IOException e) {
+                discardFrom(batchStart, e);
+                throw e;
+            }
+        } finally {
+            channelLock.unlock();
+        }
+    }
+
+    private void discardFrom(long batchStart, IOException failure) {
+        try {
+            channel.truncate(batchStart);
+            channel.force(false);
+        } catch (IOException e) {
+            e.addSuppressed(failure);
+            brokenBy = e;
+        }
+    }
+
+    private FileChannel open() throws IOException {
+        return FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    }
+
+    private static void replay(Path path, BiConsumer<AccountChange, Account> consumer) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        int completeRecords = countCompleteRecords(path);
+        try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+            String line;
+            for (int i = 0; i < completeRecords && (line = reader.readLine()) != null; i++) {
+                int delimiter = line.indexOf(DELIMITER);
+                consumer.accept(AccountChange.valueOf(line.substring(0, delimiter)),
+                    Account.fromCSV(line.substring(delimiter + 1)));
+            }
+        }
+    }
+
+    private static int countCompleteRecords(Path path) throws IOException {
+        int records = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+        try (FileChannel file = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (file.read(buffer.clear()) > 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    if (buffer.get() == NEW_LINE) {
+                        records++;
+                    }
+                }
+            }
+        }
+
+        return records;
+    }
+
+    private static void appendTo(Path target, Path source) throws IOException {
+        try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long position = 0;
+            long size = in.size();
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            out.force(false);
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.exception;
+
+public class StalePricesException extends FailedRequestException {
+    public StalePricesException(String message) {
+        super(message);
+    }
+}
@@ -1,88 +1,350 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
 
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.FailedRequestException;
-import com.google.gson.JsonArray;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.StalePricesException;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.HashMap;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
+/**
+ * Fetches prices from CoinAPI, keeping two immutable {@link PriceSnapshot}s, each published through
+ * a single volatile write:
+ * <ul>
+ *     <li>the prices of the tracked assets, the ones requested recently, including the ones held in the
+ *     wallets of the logged-in users. Only these are fetched for commands, with {@code filter_asset_id},
+ *     and a refresher reloads them in the background well before they get too old, retrying soon after
+ *     a failure. Requesting an asset they lack fetches them at once with that asset added.
+ *     Trades are refused once they are older than the maximum staleness.</li>
+ *     <li>the market chart, the whole listing, fetched only to list the offerings and reloaded
+ *     in the background when it is listed after the refresh interval.</li>
+ * </ul>
+ *
+ * <p>Requests are sent asynchronously and are single-flight: callers asking for a query that is
+ * already in flight share its future instead of sending it again.
+ */
 public class ApiCall {
 
     private final HttpClient httpClient;
     private final String apiKey;
-    private static final int MINUTES_OF_RESPONSE_VALIDITY = 30;
+    private final ServerLogger logger;
+    private static final Duration REFRESH_INTERVAL = Duration.ofMinutes(20);
+    private static final Duration RETRY_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration MAX_STALENESS = Duration.ofMinutes(30);
+    private static final Duration TRACKING_WINDOW = Duration.ofHours(1);
+    private static final String STALE_PRICES_MESSAGE = "The latest prices are %d seconds old, trading is paused";
     private static final int MAX_RESULTS = 50;
-    private static final double MINIMUM_PRICE_FOR_ONE = 0.0001;
-    private static final int MAXIMUM_PRICE_FOR_ONE = 100_000;
     private static final int BAD_REQUEST_CODE = 400;
     private static final int INTERNET_SERVER_ERROR_CODE = 500;
-    private Map<String, Double> marketChart;
+    private static final String API_ERROR_MESSAGE = "An error has occurred when making a query to API";
+    private static final String REFRESH_FAILED_MESSAGE = "An error has occurred while refreshing the prices: ";
+    private static final String LOG_PATH = "server.log";
+    private final Duration refreshInterval;
+    private final Duration retryInterval;
+    private final Duration maxStaleness;
+    private final Duration trackingWindow;
+    private volatile PriceSnapshot marketChart;
+    private volatile TrackedPrices trackedPrices;
+    private final Map<String, Long> trackedAssets = new ConcurrentHashMap<>();
+    private final Map<URI, CompletableFuture<PriceSnapshot>> inFlight = new ConcurrentHashMap<>();
     private ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private ScheduledFuture<?> nextRefresh;
 
     public ApiCall(HttpClient httpClient, String apiKey) {
+        this(httpClient, apiKey, new ServerLogger(LOG_PATH));
+    }
+
+    /**
+     * @param logger Gets the failures of the fetches made in the background, which no caller waits for
+     */
+    public ApiCall(HttpClient httpClient, String apiKey, ServerLogger logger) {
+        this(httpClient, apiKey, logger, REFRESH_INTERVAL, RETRY_INTERVAL, MAX_STALENESS);
+    }
+
+    ApiCall(HttpClient httpClient, String apiKey, Duration refreshInterval, Duration retryInterval,
+            Duration maxStaleness) {
+        this(httpClient, apiKey, new ServerLogger(LOG_PATH), refreshInterval, retryInterval, maxStaleness);
+    }
+
+    ApiCall(HttpClient httpClient, String apiKey, ServerLogger logger, Duration refreshInterval,
+            Duration retryInterval, Duration maxStaleness) {
+        this(httpClient, apiKey, logger, refreshInterval, retryInterval, maxStaleness, TRACKING_WINDOW);
+    }
+
+    /**
+     * @param trackingWindow How long an asset stays tracked after it was last requested
+     */
+    ApiCall(HttpClient httpClient, String apiKey, ServerLogger logger, Duration refreshInterval,
+            Duration retryInterval, Duration maxStaleness, Duration trackingWindow) {
         this.httpClient = httpClient;
         this.apiKey = apiKey;
-        this.marketChart = new HashMap<>();
+        this.logger = logger;
+        this.refreshInterval = refreshInterval;
+        this.retryInterval = retryInterval;
+        this.maxStaleness = maxStaleness;
+        this.trackingWindow = trackingWindow;
     }
 
-    public Map<String, Double> getMarketChart() throws FailedRequestException {
-        if (marketChart.isEmpty()) {
-            makeApiCall(new Query(apiKey));
+    /**
+     * Returns the last market chart fetched, requesting it from the API only if there is none yet.
+     * A chart older than the refresh interval is still returned, while a new one is fetched in the background.
+     * The snapshot never changes, a refresh replaces it with a new one.
+     */
+    public PriceSnapshot getMarketChart() throws FailedRequestException {
+        PriceSnapshot current = marketChart;
+        if (current == null) {
+            return await(fetchMarketChart());
         }
 
-        return marketChart;
+        if (current.getAge().compareTo(refreshInterval) > 0) {
+            fetchMarketChart().whenComplete((chart, failure) -> {
+                if (failure != null) {
+                    logFailure(failure);
+                }
+            });
+        }
+        return current;
     }
 
-    private void makeApiCall(Query query) throws FailedRequestException {
-        try {
-            URI uriAll = query.constructUri();
+    /**
+     * Non-blocking {@link #getMarketChart()}: completes at once with the last market chart fetched,
+     * or, if there is none yet, once the request shared by all callers is answered. Completes
+     * exceptionally with a {@link FailedRequestException} if the API refused the request.
+     */
+    public CompletableFuture<PriceSnapshot> getMarketChartAsync() {
+        PriceSnapshot current = marketChart;
+        if (current != null) {
+            return CompletableFuture.completedFuture(current);
+        }
 
-            HttpRequest request = HttpRequest.newBuilder().uri(uriAll).build();
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        return fetchMarketChart();
+    }
 
-            int responseCode = response.statusCode();
-            System.out.println(uriAll);
-            System.out.println(responseCode);
+    /**
+     * Keeps the prices of the assets refreshed for the tracking window, without fetching them now
+     */
+    public void track(Collection<String> assetIds) {
+        long now = System.nanoTime();
+        assetIds.forEach(assetId -> trackedAssets.put(assetId, now));
+    }
 
-            handleResponseCode(responseCode);
+    /**
+     * Tracks the assets and returns the last prices fetched for the tracked assets, fetching them
+     * at once if some of the given assets were not asked for by the last fetch. Prices older than the
+     * refresh interval, left behind when the refresher stopped, are returned while they are refreshed
+     * in the background, and prices older than the maximum staleness are fetched again first, falling
+     * back to them if that fails. Assets the API has no price for are missing from the snapshot.
+     */
+    public PriceSnapshot getPrices(Collection<String> assetIds) throws FailedRequestException {
+        if (assetIds.isEmpty()) {
+            return PriceSnapshot.of(Map.of());
+        }
 
-            JsonArray jsonArray = JsonParser.parseString(response.body()).getAsJsonArray();
+        track(assetIds);
+        TrackedPrices current = trackedPrices;
+        if (current == null || !current.assetIds().containsAll(assetIds)) {
+            return await(fetchTracked(activeAssets()));
+        }
 
-            fetchMarketChart(jsonArray);
+        Duration age = current.prices().getAge();
+        if (age.compareTo(maxStaleness) > 0) {
+            try {
+                return await(fetchTracked(activeAssets()));
+            } catch (FailedRequestException | RuntimeException e) {
+                logFailure(e);
+                return current.prices();
+            }
+        }
+        if (age.compareTo(refreshInterval) > 0) {
+            refresh();
+        }
+        return current.prices();
+    }
 
-            scheduler.schedule(() -> scheduleApiDeletion(), MINUTES_OF_RESPONSE_VALIDITY, TimeUnit.MINUTES);
+    /**
+     * Returns the prices of the assets, like {@link #getPrices(Collection)}, if they are recent enough to trade at
+     *
+     * @throws StalePricesException if the prices are older than the maximum staleness
+     */
+    public PriceSnapshot getTradingPrices(Collection<String> assetIds) throws FailedRequestException {
+        PriceSnapshot current = getPrices(assetIds);
+        Duration age = current.getAge();
+        if (age.compareTo(maxStaleness) > 0) {
+            throw new StalePricesException(String.format(STALE_PRICES_MESSAGE, age.toSeconds()));
+        }
+
+        return current;
+    }
 
-        } catch (FailedRequestException e) {
-            throw new FailedRequestException(e.getMessage());
-        } catch (Exception e) {
-            System.out.println(e.getClass());
-            throw new RuntimeException("An error has occurred when making a query to API");
+    /**
+     * @return how long ago the prices of the tracked assets were fetched, or null if none were fetched yet
+     */
+    public Duration getPricesAge() {
+        TrackedPrices current = trackedPrices;
+
+        return current == null ? null : current.prices().getAge();
+    }
+
+    /**
+     * Reloads the prices of the tracked assets in the background, keeping the last ones if that fails.
+     * Once no asset is tracked the refresher stops, {@link #getPrices(Collection)} starts it again
+     * when it finds the prices older than the refresh interval.
+     */
+    private void refresh() {
+        Set<String> assetIds = activeAssets();
+        if (assetIds.isEmpty()) {
+            return;
+        }
+
+        fetchTracked(assetIds).whenComplete((prices, failure) -> {
+            if (failure != null) {
+                logFailure(failure);
+                scheduleRefresh(retryInterval);
+            }
+        });
+    }
+
+    /**
+     * Replaces the refresh scheduled before, so a fetch made on request postpones the refresh
+     */
+    private synchronized void scheduleRefresh(Duration delay) {
+        if (nextRefresh != null) {
+            nextRefresh.cancel(false);
+        }
+        if (!scheduler.isShutdown()) {
+            nextRefresh = scheduler.schedule(this::refresh, delay.toNanos(), TimeUnit.NANOSECONDS);
         }
     }
 
-    private void fetchMarketChart(JsonArray jsonArray) {
-        int ctr = 0;
-        System.out.println(jsonArray.size());
-        while (ctr < jsonArray.size() && ctr < MAX_RESULTS) {
-            JsonObject current = jsonArray.get(ctr++).getAsJsonObject();
+    /**
+     * Forgets the assets not requested within the tracking window
+     *
+     * @return the assets still tracked
+     */
+    private Set<String> activeAssets() {
+        long oldestRequest = System.nanoTime() - trackingWindow.toNanos();
+        trackedAssets.values().removeIf(requested -> requested - oldestRequest < 0);
+
+        return Set.copyOf(trackedAssets.keySet());
+    }
 
-            if (current.get("type_is_crypto").getAsInt() != 1 || !current.has("price_usd")
-                || Double.compare(current.get("price_usd").getAsDouble(), MINIMUM_PRICE_FOR_ONE) < 0
-                || Double.compare(current.get("price_usd").getAsDouble(), MAXIMUM_PRICE_FOR_ONE) > 0) {
-                jsonArray.remove(ctr);
-                continue;
+    private CompletableFuture<PriceSnapshot> fetchMarketChart() {
+        return fetch(new Query(apiKey), MAX_RESULTS, chart -> marketChart = chart);
+    }
+
+    /**
+     * Fetches the given assets only. Assets the API has no price for stop being tracked.
+     */
+    private CompletableFuture<PriceSnapshot> fetchTracked(Set<String> assetIds) {
+        Query query = new Query(apiKey, assetIds);
+
+        return fetch(query, assetIds.size(), prices -> {
+            trackedPrices = new TrackedPrices(prices, query.getAssetIds());
+            trackedAssets.keySet().removeIf(assetId -> assetIds.contains(assetId) && !prices.contains(assetId));
+            scheduleRefresh(refreshInterval);
+        });
+    }
+
+    /**
+     * Sends the query, unless the same query is already in flight, in which case its future is returned.
+     * Once the response is parsed the prices are published.
+     *
+     * @param maxResults Most assets read from the response
+     */
+    private CompletableFuture<PriceSnapshot> fetch(Query query, int maxResults, Consumer<PriceSnapshot> publish) {
+        URI uri;
+        try {
+            uri = query.constructUri();
+        } catch (URISyntaxException e) {
+            return CompletableFuture.failedFuture(new FailedRequestException(API_ERROR_MESSAGE, e));
+        }
+
+        CompletableFuture<PriceSnapshot> fetched = new CompletableFuture<>();
+        CompletableFuture<PriceSnapshot> sharedFetch = inFlight.putIfAbsent(uri, fetched);
+        if (sharedFetch != null) {
+            return sharedFetch;
+        }
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder().uri(uri).build();
+            httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream())
+                .thenApply(response -> parsePrices(response, maxResults))
+                .whenComplete((prices, failure) -> complete(uri, fetched, prices, failure, publish));
+        } catch (RuntimeException e) {
+            complete(uri, fetched, null, e, publish);
+        }
+
+        return fetched;
+    }
+
+    /**
+     * The prices are published before the query leaves the in-flight map, so a caller that misses
+     * the shared future finds the new prices instead of sending the query again. A failure to publish,
+     * such as the refresh being rejected after shutdown, is logged and the fetched prices are still returned.
+     */
+    private void complete(URI uri, CompletableFuture<PriceSnapshot> fetched, PriceSnapshot prices,
+                          Throwable failure, Consumer<PriceSnapshot> publish) {
+        try {
+            if (failure == null) {
+                publish.accept(prices);
+            }
+        } catch (RuntimeException e) {
+            logFailure(e);
+        } finally {
+            inFlight.remove(uri, fetched);
+
+            if (failure == null) {
+                fetched.complete(prices);
+            } else {
+                fetched.completeExceptionally(failure instanceof CompletionException ? failure.getCause() : failure);
             }
-            marketChart.put(current.get("asset_id").getAsString(),
-                Double.valueOf(current.get("price_usd").getAsDouble()));
+        }
+    }
+
+    private void logFailure(Throwable failure) {
+        logger.logError(REFRESH_FAILED_MESSAGE + failure, failure.getStackTrace());
+    }
+
+    private static PriceSnapshot await(CompletableFuture<PriceSnapshot> prices) throws FailedRequestException {
+        try {
+            return prices.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof FailedRequestException failed) {
+                throw failed;
+            }
+            throw new RuntimeException(API_ERROR_MESSAGE, e.getCause());
+        }
+    }
+
+    /**
+     * Streams the assets from the response body as it arrives, see {@link MarketChartReader}
+     */
+    private PriceSnapshot parsePrices(HttpResponse<InputStream> response, int maxResults) {
+        int responseCode = response.statusCode();
+
+        try (InputStream body = response.body()) {
+            handleResponseCode(responseCode);
+
+            return MarketChartReader.read(body, maxResults);
+        } catch (FailedRequestException | IOException | RuntimeException e) {
+            throw new CompletionException(e);
         }
     }
 
@@ -94,11 +356,13 @@ public class ApiCall {
         }
     }
 
-    private void scheduleApiDeletion() {
-        marketChart.clear();
-    }
-
     public void shutdownScheduler() {
         scheduler.shutdownNow();
     }
+
+    /**
+     * @param assetIds Assets the fetch asked for, including the ones it found no price for
+     */
+    private record TrackedPrices(PriceSnapshot prices, Set<String> assetIds) {
+    }
 }
@@ -0,0 +1,72 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the prices of crypto assets from the JSON array returned by {@code /v1/assets}, one element at
+ * a time, straight from the response stream. No tree is built: only the fields of the current asset
+ * are kept, and reading stops as soon as enough assets are found.
+ */
+final class MarketChartReader {
+
+    private static final String ASSET_ID = "asset_id";
+    private static final String TYPE_IS_CRYPTO = "type_is_crypto";
+    private static final String PRICE_USD = "price_usd";
+    private static final double MINIMUM_PRICE_FOR_ONE = 0.0001;
+    private static final int MAXIMUM_PRICE_FOR_ONE = 100_000;
+
+    private MarketChartReader() {
+    }
+
+    /**
+     * Reads the assets that are crypto and have a price within the allowed bounds, and closes the stream
+     *
+     * @param maxResults Most assets read, the rest of the stream is left unread
+     * @return the prices in USD, fetched now
+     */
+    static PriceSnapshot read(InputStream body, int maxResults) throws IOException {
+        PriceSnapshot.Builder prices = new PriceSnapshot.Builder();
+
+        try (JsonReader reader = new JsonReader(new InputStreamReader(body, StandardCharsets.UTF_8))) {
+            reader.beginArray();
+            while (prices.size() < maxResults && reader.hasNext()) {
+                readAsset(reader, prices);
+            }
+        }
+
+        return prices.build();
+    }
+
+    private static void readAsset(JsonReader reader, PriceSnapshot.Builder prices) throws IOException {
+        String assetId = null;
+        boolean isCrypto = false;
+        double price = Double.NaN;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+                continue;
+            }
+
+            switch (name) {
+                case ASSET_ID -> assetId = reader.nextString();
+                case TYPE_IS_CRYPTO -> isCrypto = reader.nextInt() == 1;
+                case PRICE_USD -> price = reader.nextDouble();
+                default -> reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (assetId != null && isCrypto && price >= MINIMUM_PRICE_FOR_ONE && price <= MAXIMUM_PRICE_FOR_ONE) {
+            prices.put(assetId, price);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Immutable prices of the assets fetched together. Each snapshot numbers its asset codes with dense ids
+ * of its own and keeps the prices in an array indexed by id, so lookups take no lock and box no prices,
+ * and the ids go away with the snapshot. The ids are not exposed: they mean nothing in another snapshot,
+ * and a command looks each of its assets up once, so a lookup by code is one hash lookup either way.
+ * A refresh publishes a whole new snapshot, so a command that reads all its prices from the snapshot
+ * it got never mixes prices of two fetches.
+ */
+public final class PriceSnapshot {
+
+    private static final AtomicLong VERSIONS = new AtomicLong();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private final Map<String, Integer> ids;
+    private final String[] codes;
+    private final double[] prices;
+    private final long version;
+    private final long fetchedNanos;
+
+    private PriceSnapshot(Map<String, Integer> ids, String[] codes, double[] prices, long fetchedNanos) {
+        this.ids = ids;
+        this.codes = codes;
+        this.prices = prices;
+        this.version = VERSIONS.incrementAndGet();
+        this.fetchedNanos = fetchedNanos;
+    }
+
+    /**
+     * @return a snapshot of the given prices, fetched now
+     */
+    public static PriceSnapshot of(Map<String, Double> prices) {
+        Builder builder = new Builder();
+        prices.forEach(builder::put);
+
+        return builder.build();
+    }
+
+    /**
+     * @return a number that grows with every snapshot built
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public long getFetchedNanos() {
+        return fetchedNanos;
+    }
+
+    public Duration getAge() {
+        return Duration.ofNanos(System.nanoTime() - fetchedNanos);
+    }
+
+    public int size() {
+        return codes.length;
+    }
+
+    public boolean contains(String assetId) {
+        return ids.containsKey(assetId);
+    }
+
+    /**
+     * @return the price of one unit of the asset in USD, or NaN if the snapshot has no price for it
+     */
+    public double priceOf(String assetId) {
+        Integer id = ids.get(assetId);
+
+        return id == null ? Double.NaN : prices[id];
+    }
+
+    /**
+     * @return a new unmodifiable map from asset id to price, for listing the whole snapshot
+     */
+    public Map<String, Double> toMap() {
+        Map<String, Double> map = new HashMap<>();
+        for (int id = 0; id < codes.length; id++) {
+            map.put(codes[id], prices[id]);
+        }
+
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Collects the prices of a snapshot. A builder is used by a single thread and built once.
+     */
+    static final class Builder {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private String[] codes = new String[INITIAL_CAPACITY];
+        private double[] prices = new double[INITIAL_CAPACITY];
+
+        void put(String assetId, double price) {
+            Integer id = ids.get(assetId);
+            if (id == null) {
+                id = ids.size();
+                if (id == prices.length) {
+                    codes = Arrays.copyOf(codes, id * 2);
+                    prices = Arrays.copyOf(prices, id * 2);
+                }
+                ids.put(assetId, id);
+                codes[id] = assetId;
+            }
+
+            prices[id] = price;
+        }
+
+        int size() {
+            return ids.size();
+        }
+
+        /**
+         * @return the snapshot, fetched now
+         */
+        PriceSnapshot build() {
+            int size = ids.size();
+
+            return new PriceSnapshot(Collections.unmodifiableMap(ids), Arrays.copyOf(codes, size),
+                Arrays.copyOf(prices, size), System.nanoTime());
+        }
+    }
+}
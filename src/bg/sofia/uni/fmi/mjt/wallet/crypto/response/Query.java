@@ -2,21 +2,45 @@ package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
 
+/**
+ * A request for {@code /v1/assets}: either the whole listing or, with {@code filter_asset_id},
+ * only the given assets. The ids are sorted, so queries for the same assets have the same URI.
+ */
 public class Query {
     private final String apiKey;
+    private final Set<String> assetIds;
     private static final String AUTHORITY = "rest.coinapi.io";
     private static final String PATH = "/v1/assets/";
     private static final String API_CALL_IDENTIFIER = "APIKEY-";
+    private static final String FILTER_ASSET_ID = "filter_asset_id=";
+    private static final String ASSET_ID_DELIMITER = ";";
 
     public Query(String apiKey) {
+        this(apiKey, Set.of());
+    }
+
+    /**
+     * @param assetIds Assets to fetch, all assets if empty
+     */
+    public Query(String apiKey, Collection<String> assetIds) {
         this.apiKey = apiKey;
+        this.assetIds = Collections.unmodifiableSet(new TreeSet<>(assetIds));
+    }
+
+    public Set<String> getAssetIds() {
+        return assetIds;
     }
 
     public URI constructUri() throws URISyntaxException {
         String pathWithKey = PATH + API_CALL_IDENTIFIER + apiKey;
+        String filter = assetIds.isEmpty() ? null : FILTER_ASSET_ID + String.join(ASSET_ID_DELIMITER, assetIds);
 
         return new URI("https", AUTHORITY,
-            pathWithKey, null);
+            pathWithKey, filter, null);
     }
 }
@@ -0,0 +1,38 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+/**
+ * Constants of the binary protocol. A client selects it by sending {@link #HANDSHAKE} as the very first
+ * byte of the connection. It is a UTF-8 continuation byte, so it never starts a text command, and any
+ * other first byte keeps the newline-delimited text protocol.
+ *
+ * <p>Requests are a two-byte big-endian length followed by that many bytes: the opcode of the
+ * command (see {@code CommandType}) and its arguments. Strings are a one-byte length followed by
+ * UTF-8 bytes and numbers are eight-byte big-endian doubles.
+ *
+ * <p>Replies keep the four-byte length prefix of the text protocol, followed by a one-byte record type
+ * and its fields. Strings in replies are a two-byte length followed by UTF-8 bytes.
+ * <ul>
+ *     <li>{@link #MESSAGE}: text</li>
+ *     <li>{@link #OFFERINGS}: two-byte count, then asset id and price per asset</li>
+ *     <li>{@link #WALLET_SUMMARY}: balance, two-byte count, then asset id and amount per asset</li>
+ *     <li>{@link #OVERALL_SUMMARY}: total winnings or losses</li>
+ *     <li>{@link #TRADE}: {@link #PURCHASE} or {@link #SALE}, asset id, money amount</li>
+ * </ul>
+ */
+public final class BinaryProtocol {
+
+    public static final byte HANDSHAKE = (byte) 0xB1;
+    public static final int REQUEST_LENGTH_BYTES = Short.BYTES;
+
+    public static final byte MESSAGE = 0x01;
+    public static final byte OFFERINGS = 0x02;
+    public static final byte WALLET_SUMMARY = 0x03;
+    public static final byte OVERALL_SUMMARY = 0x04;
+    public static final byte TRADE = 0x05;
+
+    public static final byte PURCHASE = 0x00;
+    public static final byte SALE = 0x01;
+
+    private BinaryProtocol() {
+    }
+}
@@ -0,0 +1,88 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Bounded pool of direct buffers of one size. It is owned by a single reactor and
+ * must only be used from that reactor's thread.
+ */
+class BufferPool {
+
+    private static final String INVALID_POOL_SIZE_MESSAGE =
+        "Buffer size and pool capacity must be positive";
+
+    private final int bufferSize;
+    private final int capacity;
+    private final Deque<ByteBuffer> freeBuffers;
+
+    private volatile long allocatedBuffers;
+    private volatile long acquiredBuffers;
+    private volatile long releasedBuffers;
+    private volatile long discardedBuffers;
+
+    BufferPool(int bufferSize, int capacity) {
+        if (bufferSize <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException(INVALID_POOL_SIZE_MESSAGE);
+        }
+
+        this.bufferSize = bufferSize;
+        this.capacity = capacity;
+        this.freeBuffers = new ArrayDeque<>(capacity);
+    }
+
+    ByteBuffer acquire() {
+        acquiredBuffers++;
+
+        ByteBuffer buffer = freeBuffers.pollFirst();
+        if (buffer == null) {
+            allocatedBuffers++;
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Allocates a one-off direct buffer that is larger than the pooled ones.
+     * It is counted as an allocation and is dropped when released.
+     */
+    ByteBuffer allocateLarge(int size) {
+        allocatedBuffers++;
+
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    void release(ByteBuffer buffer) {
+        releasedBuffers++;
+
+        if (buffer.capacity() != bufferSize || !buffer.isDirect() || freeBuffers.size() >= capacity) {
+            discardedBuffers++;
+            return;
+        }
+
+        buffer.clear();
+        freeBuffers.addFirst(buffer);
+    }
+
+    int getBufferSize() {
+        return bufferSize;
+    }
+
+    long getAllocatedBuffers() {
+        return allocatedBuffers;
+    }
+
+    long getAcquiredBuffers() {
+        return acquiredBuffers;
+    }
+
+    long getReleasedBuffers() {
+        return releasedBuffers;
+    }
+
+    long getDiscardedBuffers() {
+        return discardedBuffers;
+    }
+}
@@ -0,0 +1,257 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.BinaryCommandView;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandRequest;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandView;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+class ClientConnection {
+
+    private enum Protocol {
+        UNDECIDED,
+        TEXT,
+        BINARY
+    }
+
+    private static final int MAX_FRAME_SIZE = 64 * 1024;
+    private static final byte FRAME_DELIMITER = '\n';
+    private static final byte CARRIAGE_RETURN = '\r';
+    private static final int MAX_BUFFERS_PER_WRITE = 64;
+    private static final long MAX_PENDING_OUTPUT_BYTES = 1024 * 1024;
+
+    private final BufferPool bufferPool;
+    private ByteBuffer input;
+    private int scannedBytes;
+    private int frameBytes;
+    private final CommandView command;
+    private BinaryCommandView binaryCommand;
+    private Protocol protocol;
+    private boolean isFrameTooLong;
+
+    private final Deque<ByteBuffer> output;
+    private final ByteBuffer[] writeBatch;
+    private long pendingOutputBytes;
+    private boolean isClosing;
+    private boolean isAwaitingCommand;
+
+    ClientConnection(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.input = bufferPool.acquire();
+        this.scannedBytes = 0;
+        this.frameBytes = 0;
+        this.command = new CommandView();
+        this.protocol = Protocol.UNDECIDED;
+        this.isFrameTooLong = false;
+        this.output = new ArrayDeque<>();
+        this.writeBatch = new ByteBuffer[MAX_BUFFERS_PER_WRITE];
+        this.pendingOutputBytes = 0;
+        this.isClosing = false;
+        this.isAwaitingCommand = false;
+    }
+
+    /**
+     * Reads whatever is available on the channel and appends it to the pending input.
+     *
+     * @return the number of bytes read or -1 if the client closed the connection
+     */
+    int readFrom(SocketChannel sc) throws IOException {
+        consumeFrame();
+        ensureCapacity();
+
+        return sc.read(input);
+    }
+
+    /**
+     * Parses the next complete frame in place into the connection's reusable command view.
+     * The frame is removed from the pending input on the next call or read,
+     * so the view stays valid until then.
+     *
+     * @return the parsed command or null if no complete frame has arrived yet
+     */
+    CommandRequest nextCommand() {
+        consumeFrame();
+        if (protocol == Protocol.UNDECIDED && !selectProtocol()) {
+            return null;
+        }
+
+        return protocol == Protocol.BINARY ? nextBinaryCommand() : nextTextCommand();
+    }
+
+    boolean isBinary() {
+        return protocol == Protocol.BINARY;
+    }
+
+    void enqueue(ByteBuffer reply) {
+        output.addLast(reply);
+        pendingOutputBytes += reply.remaining();
+    }
+
+    /**
+     * Writes as much of the queued output as the channel accepts without blocking,
+     * gathering several queued replies into a single write call.
+     */
+    void flushTo(GatheringByteChannel channel) throws IOException {
+        while (!output.isEmpty()) {
+            int batchSize = 0;
+            for (ByteBuffer pending : output) {
+                writeBatch[batchSize++] = pending;
+                if (batchSize == MAX_BUFFERS_PER_WRITE) {
+                    break;
+                }
+            }
+
+            long written = channel.write(writeBatch, 0, batchSize);
+            pendingOutputBytes -= written;
+
+            while (!output.isEmpty() && !output.peekFirst().hasRemaining()) {
+                bufferPool.release(output.pollFirst());
+            }
+            for (int i = 0; i < batchSize; i++) {
+                writeBatch[i] = null;
+            }
+
+            if (written == 0) {
+                return;
+            }
+        }
+    }
+
+    boolean hasPendingOutput() {
+        return !output.isEmpty();
+    }
+
+    boolean isOutputSaturated() {
+        return pendingOutputBytes >= MAX_PENDING_OUTPUT_BYTES;
+    }
+
+    void closeAfterFlush() {
+        isClosing = true;
+    }
+
+    boolean isClosing() {
+        return isClosing;
+    }
+
+    void awaitCommand() {
+        isAwaitingCommand = true;
+    }
+
+    void completeCommand() {
+        isAwaitingCommand = false;
+    }
+
+    boolean isAwaitingCommand() {
+        return isAwaitingCommand;
+    }
+
+    boolean isOverflowed() {
+        return isFrameTooLong || input.position() >= MAX_FRAME_SIZE && scannedBytes >= input.position();
+    }
+
+    /**
+     * Returns all buffers held by the connection to the pool. The connection must not be used afterwards.
+     */
+    void release() {
+        bufferPool.release(input);
+        input = null;
+
+        while (!output.isEmpty()) {
+            bufferPool.release(output.pollFirst());
+        }
+        pendingOutputBytes = 0;
+    }
+
+    private boolean selectProtocol() {
+        if (input.position() == 0) {
+            return false;
+        }
+
+        if (input.get(0) == BinaryProtocol.HANDSHAKE) {
+            protocol = Protocol.BINARY;
+            binaryCommand = new BinaryCommandView();
+            consume(input.position(), 1);
+        } else {
+            protocol = Protocol.TEXT;
+        }
+
+        return true;
+    }
+
+    private CommandView nextTextCommand() {
+        int end = input.position();
+
+        for (int i = scannedBytes; i < end; i++) {
+            if (input.get(i) == FRAME_DELIMITER) {
+                int frameEnd = i;
+                if (frameEnd > 0 && input.get(frameEnd - 1) == CARRIAGE_RETURN) {
+                    frameEnd--;
+                }
+
+                frameBytes = i + 1;
+                return command.parse(input, 0, frameEnd);
+            }
+        }
+
+        scannedBytes = end;
+        return null;
+    }
+
+    private BinaryCommandView nextBinaryCommand() {
+        int end = input.position();
+        if (end < BinaryProtocol.REQUEST_LENGTH_BYTES) {
+            return null;
+        }
+
+        int frameEnd = BinaryProtocol.REQUEST_LENGTH_BYTES + Short.toUnsignedInt(input.getShort(0));
+        if (frameEnd > MAX_FRAME_SIZE) {
+            isFrameTooLong = true;
+            return null;
+        }
+        if (end < frameEnd) {
+            return null;
+        }
+
+        frameBytes = frameEnd;
+        return binaryCommand.parse(input, BinaryProtocol.REQUEST_LENGTH_BYTES, frameEnd);
+    }
+
+    private void consumeFrame() {
+        if (frameBytes > 0) {
+            consume(input.position(), frameBytes);
+            frameBytes = 0;
+        }
+    }
+
+    private void consume(int end, int bytes) {
+        input.limit(end);
+        input.position(bytes);
+        input.compact();
+        scannedBytes = 0;
+
+        if (input.capacity() > bufferPool.getBufferSize() && input.position() <= bufferPool.getBufferSize()) {
+            ByteBuffer pooled = bufferPool.acquire();
+            input.flip();
+            pooled.put(input);
+            bufferPool.release(input);
+            input = pooled;
+        }
+    }
+
+    private void ensureCapacity() {
+        if (input.hasRemaining() || input.capacity() >= MAX_FRAME_SIZE) {
+            return;
+        }
+
+        ByteBuffer grown = bufferPool.allocateLarge(Math.min(input.capacity() * 2, MAX_FRAME_SIZE));
+        input.flip();
+        grown.put(input);
+        bufferPool.release(input);
+        input = grown;
+    }
+}
@@ -1,52 +1,56 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
 
-import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandCreator;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandExecutor;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.net.SocketException;
-import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CryptocurrencyWalletServer {
 
     private static final int SERVER_PORT = 7777;
     private static final String SERVER_HOST = "localhost";
-    private static final int BUFFER_SIZE = 2048;
+    private static final int DEFAULT_REACTOR_COUNT = Runtime.getRuntime().availableProcessors();
+    private static final String REACTOR_THREAD_NAME = "wallet-reactor-";
 
     private static final String LOG_PATH = "server.log";
-    private static final String SHUTTING_DOWN_MESSAGE =
-        "Server was shut down";
-    private static final String DISCONNECT = "disconnect";
-    private static final String DISCONNECTED_SUCCESSFULLY =
-        "Disconnected successfully";
 
-    private boolean isServerWorking;
+    private volatile boolean isServerWorking;
 
     private final CommandExecutor executor;
-    private ByteBuffer buffer;
+    private final int reactorCount;
     private Selector selector;
     private final ServerLogger logger;
-    private Set<SocketChannel> connectedClients;
+    private Reactor[] reactors;
+    private ExecutorService commandWorkers;
+    private Thread[] reactorThreads;
+    private int nextReactor;
 
     private static final String SERVER_SOCKET_PROBLEM_MESSAGE =
         "There is a problem with the server socket";
-    private static final String CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE =
-        "Client disconnected forcefully";
+    private static final String INVALID_REACTOR_COUNT_MESSAGE =
+        "Reactor count must be positive";
 
     public CryptocurrencyWalletServer(CommandExecutor executor) {
+        this(executor, DEFAULT_REACTOR_COUNT);
+    }
+
+    public CryptocurrencyWalletServer(CommandExecutor executor, int reactorCount) {
+        if (reactorCount <= 0) {
+            throw new IllegalArgumentException(INVALID_REACTOR_COUNT_MESSAGE);
+        }
+
         this.executor = executor;
+        this.reactorCount = reactorCount;
         this.logger = new ServerLogger(LOG_PATH);
-        this.connectedClients = new HashSet<>();
     }
 
     public void start() {
@@ -58,8 +62,8 @@ public class CryptocurrencyWalletServer {
             this.selector = Selector.open();
             configureServerSocketChannel(serverSocketChannel, selector);
 
-            this.buffer = ByteBuffer.allocate(BUFFER_SIZE);
             isServerWorking = true;
+            startReactors();
             while (isServerWorking) {
                 int readyChannels = selector.select();
                 if (readyChannels == 0) {
@@ -72,7 +76,9 @@ public class CryptocurrencyWalletServer {
                 while (keyIterator.hasNext()) {
                     SelectionKey key = keyIterator.next();
 
-                    handleKey(key);
+                    if (key.isAcceptable()) {
+                        accept(key);
+                    }
 
                     keyIterator.remove();
                 }
@@ -80,37 +86,8 @@ public class CryptocurrencyWalletServer {
         } catch (IOException e) {
             logger.logError(SERVER_SOCKET_PROBLEM_MESSAGE, e.getStackTrace());
             throw new RuntimeException(SERVER_SOCKET_PROBLEM_MESSAGE, e);
-        }
-    }
-
-    private void handleKey(SelectionKey key) throws IOException {
-        if (key.isReadable()) {
-            SocketChannel sc = (SocketChannel) key.channel();
-            connectedClients.add(sc);
-            try {
-                String clientInput = getClientInput(sc);
-                if (clientInput != null) {
-                    if (clientInput.equals(DISCONNECT)) {
-                        writeClientOutput(sc, DISCONNECTED_SUCCESSFULLY);
-                        handleDisconnect(sc, key);
-                        sc.close();
-                    } else {
-                        String output = executor.execute(CommandCreator.newCommand(clientInput), key);
-
-                        writeClientOutput(sc, output);
-                        sc.write(buffer);
-                        if (output.equals(SHUTTING_DOWN_MESSAGE)) {
-                            shutdownServer();
-                        }
-                    }
-                }
-            } catch (SocketException e) {
-                logger.logError(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE, e.getStackTrace());
-                System.out.println(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE);
-                handleDisconnect(sc, key);
-            }
-        } else if (key.isAcceptable()) {
-            accept(selector, key);
+        } finally {
+            stopReactors();
         }
     }
 
@@ -120,56 +97,88 @@ public class CryptocurrencyWalletServer {
         channel.register(selector, SelectionKey.OP_ACCEPT);
     }
 
-    private String getClientInput(SocketChannel sc) throws IOException {
-        buffer.clear();
+    private void startReactors() throws IOException {
+        this.commandWorkers = Executors.newVirtualThreadPerTaskExecutor();
+        this.reactors = new Reactor[reactorCount];
+        this.reactorThreads = new Thread[reactorCount];
 
-        int readBytes = sc.read(buffer);
-        if (readBytes < 0) {
-            sc.close();
-            return null;
+        for (int i = 0; i < reactorCount; i++) {
+            reactors[i] = new Reactor(this, executor, commandWorkers, logger);
+            reactorThreads[i] = new Thread(reactors[i], REACTOR_THREAD_NAME + i);
+            reactorThreads[i].start();
         }
-
-        buffer.flip();
-
-        byte[] clientInputBytes = new byte[buffer.remaining()];
-        buffer.get(clientInputBytes);
-
-        return new String(clientInputBytes, StandardCharsets.UTF_8);
     }
 
-    private void writeClientOutput(SocketChannel sc, String output) throws IOException {
-        buffer.clear();
-        buffer.put(output.getBytes());
-        buffer.flip();
-
-        sc.write(buffer);
-    }
-
-    private void accept(Selector selector, SelectionKey key) throws IOException {
+    private void accept(SelectionKey key) throws IOException {
         ServerSocketChannel sockChannel = (ServerSocketChannel) key.channel();
         SocketChannel accept = sockChannel.accept();
+        if (accept == null) {
+            return;
+        }
 
         accept.configureBlocking(false);
-        accept.register(selector, SelectionKey.OP_READ);
+        nextReactor().register(accept);
     }
 
-    private void handleDisconnect(SocketChannel sc, SelectionKey key) throws IOException {
-        executor.execute(CommandCreator.newCommand(DISCONNECT), key);
-        sc.close();
-        connectedClients.remove(sc);
-        key.cancel();
+    private Reactor nextReactor() {
+        Reactor reactor = reactors[nextReactor];
+        nextReactor = (nextReactor + 1) % reactors.length;
+
+        return reactor;
+    }
+
+    /**
+     * Number of direct buffers allocated by all reactors. It stays flat in steady state
+     * when replies and client input are served from the pooled buffers.
+     */
+    public long getAllocatedBuffers() {
+        long allocated = 0;
+        for (Reactor reactor : reactors == null ? new Reactor[0] : reactors) {
+            allocated += reactor.getBufferPool().getAllocatedBuffers();
+        }
+
+        return allocated;
     }
 
-    private void shutdownServer() throws IOException {
-        for (SocketChannel sc : connectedClients) {
-            sc.close();
+    public long getAcquiredBuffers() {
+        long acquired = 0;
+        for (Reactor reactor : reactors == null ? new Reactor[0] : reactors) {
+            acquired += reactor.getBufferPool().getAcquiredBuffers();
         }
 
-        connectedClients.clear();
+        return acquired;
+    }
 
+    void shutdown() {
         this.isServerWorking = false;
+
+        for (Reactor reactor : reactors) {
+            reactor.stop();
+        }
+
         if (selector.isOpen()) {
             selector.wakeup();
         }
     }
+
+    private void stopReactors() {
+        if (reactors == null) {
+            return;
+        }
+
+        for (int i = 0; i < reactors.length; i++) {
+            if (reactors[i] == null) {
+                continue;
+            }
+
+            reactors[i].stop();
+            try {
+                reactorThreads[i].join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        commandWorkers.shutdown();
+    }
 }
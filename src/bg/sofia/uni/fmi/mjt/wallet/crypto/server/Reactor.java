@@ -0,0 +1,320 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.Command;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandRequest;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandResult;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandType;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+
+class Reactor implements Runnable {
+
+    private static final int POOLED_BUFFER_SIZE = 4096;
+    private static final int POOL_CAPACITY = 1024;
+
+    private static final String SHUTTING_DOWN_MESSAGE =
+        "Server was shut down";
+    private static final Command DISCONNECT_COMMAND = new Command(CommandType.DISCONNECT.getName());
+    private static final String DISCONNECTED_SUCCESSFULLY =
+        "Disconnected successfully";
+    private static final String REACTOR_PROBLEM_MESSAGE =
+        "There is a problem with a reactor selector";
+    private static final String CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE =
+        "Client disconnected forcefully";
+    private static final String COMMAND_TOO_LONG_MESSAGE =
+        "Command is too long, disconnecting";
+    private static final String COMMAND_FAILED_MESSAGE =
+        "An error has occurred while executing the command";
+
+    private final CryptocurrencyWalletServer server;
+    private final CommandExecutor executor;
+    private final ExecutorService commandWorkers;
+    private final ServerLogger logger;
+    private final Selector selector;
+    private final Queue<SocketChannel> acceptedChannels;
+    private final Queue<Completion> completions;
+    private final Map<SelectionKey, ClientConnection> connections;
+    private final BufferPool bufferPool;
+    private final ReplyEncoder replyEncoder;
+
+    private volatile boolean isReactorWorking;
+
+    private record Completion(SelectionKey key, CommandResult result) {
+    }
+
+    Reactor(CryptocurrencyWalletServer server, CommandExecutor executor, ExecutorService commandWorkers,
+            ServerLogger logger) throws IOException {
+        this.server = server;
+        this.executor = executor;
+        this.commandWorkers = commandWorkers;
+        this.logger = logger;
+        this.selector = Selector.open();
+        this.acceptedChannels = new ConcurrentLinkedQueue<>();
+        this.completions = new ConcurrentLinkedQueue<>();
+        this.connections = new HashMap<>();
+        this.bufferPool = new BufferPool(POOLED_BUFFER_SIZE, POOL_CAPACITY);
+        this.replyEncoder = new ReplyEncoder(bufferPool);
+        this.isReactorWorking = true;
+    }
+
+    void register(SocketChannel sc) {
+        acceptedChannels.add(sc);
+        selector.wakeup();
+    }
+
+    BufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    void stop() {
+        isReactorWorking = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (isReactorWorking) {
+                selector.select();
+                registerAcceptedChannels();
+                processCompletions();
+
+                Set<SelectionKey> selectedKeys = selector.selectedKeys();
+                Iterator<SelectionKey> keyIterator = selectedKeys.iterator();
+
+                while (keyIterator.hasNext()) {
+                    SelectionKey key = keyIterator.next();
+
+                    handleKey(key);
+
+                    keyIterator.remove();
+                }
+            }
+        } catch (IOException e) {
+            logger.logError(REACTOR_PROBLEM_MESSAGE, e.getStackTrace());
+        } finally {
+            closeConnections();
+        }
+    }
+
+    private void registerAcceptedChannels() throws IOException {
+        SocketChannel sc;
+        while ((sc = acceptedChannels.poll()) != null) {
+            SelectionKey key = sc.register(selector, SelectionKey.OP_READ);
+            connections.put(key, new ClientConnection(bufferPool));
+        }
+    }
+
+    private void processCompletions() throws IOException {
+        Completion completion;
+        while (isReactorWorking && (completion = completions.poll()) != null) {
+            SelectionKey key = completion.key();
+            ClientConnection connection = connections.get(key);
+            if (connection == null || !key.isValid() || connection.isClosing()) {
+                // the client left while the command ran, so whatever it logged in is logged out again
+                execute(DISCONNECT_COMMAND, key);
+                continue;
+            }
+
+            connection.completeCommand();
+            try {
+                if (handleOutput(key, connection, completion.result())) {
+                    processFrames(key, connection);
+                }
+            } catch (IOException e) {
+                logger.logError(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE, e.getStackTrace());
+                handleDisconnect((SocketChannel) key.channel(), key);
+            }
+        }
+    }
+
+    private void handleKey(SelectionKey key) throws IOException {
+        if (!key.isValid()) {
+            return;
+        }
+
+        SocketChannel sc = (SocketChannel) key.channel();
+        ClientConnection connection = connections.get(key);
+        try {
+            if (key.isWritable()) {
+                flush(key, connection);
+            }
+            if (key.isValid() && key.isReadable()) {
+                read(key, connection);
+            }
+        } catch (IOException e) {
+            logger.logError(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE, e.getStackTrace());
+            System.out.println(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE);
+            handleDisconnect(sc, key);
+        }
+    }
+
+    private void read(SelectionKey key, ClientConnection connection) throws IOException {
+        SocketChannel sc = (SocketChannel) key.channel();
+        if (connection.readFrom(sc) < 0) {
+            handleDisconnect(sc, key);
+            return;
+        }
+
+        processFrames(key, connection);
+    }
+
+    private void processFrames(SelectionKey key, ClientConnection connection) throws IOException {
+        CommandRequest command;
+        while (!connection.isClosing() && !connection.isAwaitingCommand()
+            && (command = connection.nextCommand()) != null) {
+            if (!handleClientInput(key, connection, command)) {
+                return;
+            }
+        }
+
+        if (connection.isOverflowed()) {
+            reply(connection, COMMAND_TOO_LONG_MESSAGE);
+            closeAfterFlush(key, connection);
+            return;
+        }
+
+        flush(key, connection);
+    }
+
+    private boolean handleClientInput(SelectionKey key, ClientConnection connection, CommandRequest command)
+        throws IOException {
+        if (command.type() == CommandType.DISCONNECT) {
+            reply(connection, DISCONNECTED_SUCCESSFULLY);
+            closeAfterFlush(key, connection);
+            return false;
+        }
+
+        if (executor.mayBlock(command)) {
+            Command detached = command.toCommand();
+            connection.awaitCommand();
+            commandWorkers.execute(() -> completeOffloaded(key, detached));
+            return true;
+        }
+
+        return handleOutput(key, connection, execute(command, key));
+    }
+
+    private boolean handleOutput(SelectionKey key, ClientConnection connection, CommandResult result)
+        throws IOException {
+        reply(connection, result);
+        if (result instanceof CommandResult.Message message && message.text().equals(SHUTTING_DOWN_MESSAGE)) {
+            flush(key, connection);
+            server.shutdown();
+            return false;
+        }
+
+        return true;
+    }
+
+    private void completeOffloaded(SelectionKey key, Command command) {
+        completions.add(new Completion(key, execute(command, key)));
+        selector.wakeup();
+    }
+
+    private CommandResult execute(CommandRequest command, SelectionKey key) {
+        try {
+            return executor.process(command, key);
+        } catch (RuntimeException e) {
+            logger.logError(COMMAND_FAILED_MESSAGE, e.getStackTrace());
+            return new CommandResult.Message(COMMAND_FAILED_MESSAGE);
+        }
+    }
+
+    private void reply(ClientConnection connection, String output) {
+        reply(connection, new CommandResult.Message(output));
+    }
+
+    private void reply(ClientConnection connection, CommandResult result) {
+        if (connection.isBinary()) {
+            replyEncoder.encode(result, connection);
+        } else {
+            replyEncoder.encode(result.toText(), connection);
+        }
+    }
+
+    private void flush(SelectionKey key, ClientConnection connection) throws IOException {
+        SocketChannel sc = (SocketChannel) key.channel();
+        connection.flushTo(sc);
+
+        if (connection.isClosing() && !connection.hasPendingOutput()) {
+            connections.remove(key).release();
+            sc.close();
+            key.cancel();
+            return;
+        }
+
+        updateInterestOps(key, connection);
+    }
+
+    private void updateInterestOps(SelectionKey key, ClientConnection connection) {
+        int interestOps = 0;
+        if (!connection.isClosing() && !connection.isOutputSaturated() && !connection.isAwaitingCommand()) {
+            interestOps |= SelectionKey.OP_READ;
+        }
+        if (connection.hasPendingOutput()) {
+            interestOps |= SelectionKey.OP_WRITE;
+        }
+
+        key.interestOps(interestOps);
+    }
+
+    private void closeAfterFlush(SelectionKey key, ClientConnection connection) throws IOException {
+        execute(DISCONNECT_COMMAND, key);
+        connection.closeAfterFlush();
+        flush(key, connection);
+    }
+
+    private void handleDisconnect(SocketChannel sc, SelectionKey key) throws IOException {
+        execute(DISCONNECT_COMMAND, key);
+        ClientConnection connection = connections.remove(key);
+        if (connection != null) {
+            connection.release();
+        }
+        sc.close();
+        key.cancel();
+    }
+
+    private void closeConnections() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                ClientConnection connection = connections.get(key);
+                if (connection != null && key.isValid()) {
+                    connection.flushTo((SocketChannel) key.channel());
+                }
+                key.channel().close();
+            } catch (IOException e) {
+                logger.logError(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE, e.getStackTrace());
+            }
+        }
+        connections.values().forEach(ClientConnection::release);
+        connections.clear();
+
+        SocketChannel sc;
+        while ((sc = acceptedChannels.poll()) != null) {
+            try {
+                sc.close();
+            } catch (IOException e) {
+                logger.logError(CLIENT_DISCONNECTED_FORCEFULLY_MESSAGE, e.getStackTrace());
+            }
+        }
+
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.logError(REACTOR_PROBLEM_MESSAGE, e.getStackTrace());
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandResult;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Encodes replies as a length prefix followed by UTF-8 text or a binary record straight into
+ * pooled buffers, reusing one encoder and one character window. Not thread-safe, owned by a single reactor.
+ */
+class ReplyEncoder {
+
+    static final int REPLY_LENGTH_BYTES = Integer.BYTES;
+    private static final int CHAR_WINDOW_SIZE = 1024;
+
+    private final BufferPool bufferPool;
+    private final CharsetEncoder encoder;
+    private final CharBuffer charWindow;
+
+    private ClientConnection connection;
+    private ByteBuffer first;
+    private ByteBuffer current;
+    private int replyLength;
+
+    ReplyEncoder(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        this.charWindow = CharBuffer.allocate(CHAR_WINDOW_SIZE);
+    }
+
+    void encode(String reply, ClientConnection connection) {
+        begin(connection);
+        putText(reply);
+        end();
+    }
+
+    void encode(CommandResult result, ClientConnection connection) {
+        begin(connection);
+
+        switch (result) {
+            case CommandResult.Message message -> {
+                putByte(BinaryProtocol.MESSAGE);
+                putString(message.text());
+            }
+            case CommandResult.Offerings offerings -> {
+                putByte(BinaryProtocol.OFFERINGS);
+                putAmounts(offerings.prices());
+            }
+            case CommandResult.WalletSummary summary -> {
+                putByte(BinaryProtocol.WALLET_SUMMARY);
+                putDouble(summary.balance());
+                putAmounts(summary.holdings());
+            }
+            case CommandResult.OverallSummary summary -> {
+                putByte(BinaryProtocol.OVERALL_SUMMARY);
+                putDouble(summary.totalWinnings());
+            }
+            case CommandResult.Trade trade -> {
+                putByte(BinaryProtocol.TRADE);
+                putByte(trade.isPurchase() ? BinaryProtocol.PURCHASE : BinaryProtocol.SALE);
+                putString(trade.assetId());
+                putDouble(trade.amount());
+            }
+        }
+
+        end();
+    }
+
+    private void begin(ClientConnection connection) {
+        this.connection = connection;
+        first = bufferPool.acquire();
+        first.position(REPLY_LENGTH_BYTES);
+        current = first;
+        replyLength = 0;
+    }
+
+    private void end() {
+        first.putInt(0, replyLength);
+        current.flip();
+        connection.enqueue(current);
+        first = null;
+        current = null;
+        connection = null;
+    }
+
+    private void putAmounts(Map<String, Double> amounts) {
+        ensureRemaining(Short.BYTES);
+        current.putShort((short) amounts.size());
+        replyLength += Short.BYTES;
+
+        for (var entry : amounts.entrySet()) {
+            putString(entry.getKey());
+            putDouble(entry.getValue());
+        }
+    }
+
+    private void putByte(byte value) {
+        ensureRemaining(Byte.BYTES);
+        current.put(value);
+        replyLength += Byte.BYTES;
+    }
+
+    private void putDouble(double value) {
+        ensureRemaining(Double.BYTES);
+        current.putDouble(value);
+        replyLength += Double.BYTES;
+    }
+
+    private void putString(String value) {
+        ensureRemaining(Short.BYTES);
+        ByteBuffer lengthBuffer = current;
+        int lengthIndex = current.position();
+        current.position(lengthIndex + Short.BYTES);
+        replyLength += Short.BYTES;
+
+        int before = replyLength;
+        putText(value);
+        lengthBuffer.putShort(lengthIndex, (short) (replyLength - before));
+    }
+
+    private void putText(String text) {
+        encoder.reset();
+        charWindow.clear();
+
+        int offset = 0;
+        boolean isEndOfInput;
+        do {
+            int chunk = Math.min(charWindow.remaining(), text.length() - offset);
+            text.getChars(offset, offset + chunk, charWindow.array(), charWindow.position());
+            charWindow.position(charWindow.position() + chunk);
+            offset += chunk;
+            isEndOfInput = offset == text.length();
+
+            charWindow.flip();
+            while (encodeWindow(isEndOfInput).isOverflow()) {
+                nextBuffer();
+            }
+            charWindow.compact();
+        } while (!isEndOfInput);
+
+        while (flushEncoder().isOverflow()) {
+            nextBuffer();
+        }
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (current.remaining() < bytes) {
+            nextBuffer();
+        }
+    }
+
+    private CoderResult encodeWindow(boolean isEndOfInput) {
+        int before = current.position();
+        CoderResult result = encoder.encode(charWindow, current, isEndOfInput);
+        replyLength += current.position() - before;
+
+        return result;
+    }
+
+    private CoderResult flushEncoder() {
+        int before = current.position();
+        CoderResult result = encoder.flush(current);
+        replyLength += current.position() - before;
+
+        return result;
+    }
+
+    private void nextBuffer() {
+        current.flip();
+        connection.enqueue(current);
+        current = bufferPool.acquire();
+    }
+}
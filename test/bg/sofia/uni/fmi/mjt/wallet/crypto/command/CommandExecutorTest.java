@@ -1,9 +1,11 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
 
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.AccountStore;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.database.Database;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.FailedRequestException;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.response.ApiCall;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.response.PriceSnapshot;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.mockito.InjectMocks;
@@ -13,11 +15,11 @@ import org.mockito.MockitoAnnotations;
 
 import java.nio.channels.SelectionKey;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -40,11 +42,16 @@ public class CommandExecutorTest {
     private SelectionKey mockKey = mock(SelectionKey.class);
     @InjectMocks
     private CommandExecutor executor;
+    private AccountStore accountStore;
 
     @BeforeEach
     void setUp() {
         Mockito.reset(mockApiCall, mockDatabase, mockKey);
         MockitoAnnotations.openMocks(this);
+
+        accountStore = new AccountStore();
+        when(mockDatabase.getAccountStore()).thenReturn(accountStore);
+        when(mockDatabase.recordChange(any(), any())).thenReturn(CompletableFuture.completedFuture(null));
     }
 
     @Test
@@ -52,7 +59,7 @@ public class CommandExecutorTest {
         String testInput = "login test1 test";
         Account account = new Account("test1", "test");
 
-        when(mockDatabase.getDatabase()).thenReturn(Set.of(account));
+        accountStore.putIfAbsent(account);
 
         assertNull(mockKey.attachment());
 
@@ -93,7 +100,6 @@ public class CommandExecutorTest {
     void testLoginWithUnexistingAccount() {
         String testInput = "login test2 test1";
 
-        when(mockDatabase.getDatabase()).thenReturn(new HashSet<>());
         when(mockKey.attachment()).thenReturn(null);
 
         Command testLoginCommand = CommandCreator.newCommand(testInput);
@@ -150,7 +156,7 @@ public class CommandExecutorTest {
         String testInput = "register test1 test1";
         Account account = new Account("test1", "test1");
 
-        when(mockDatabase.getDatabase()).thenReturn(Set.of(account));
+        accountStore.putIfAbsent(account);
 
         Command testRegisterCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testRegisterCommand, mockKey);
@@ -253,7 +259,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getMarketChart()).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testListOfferingsCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testListOfferingsCommand, mockKey);
@@ -275,7 +281,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -296,7 +302,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -317,7 +323,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -338,7 +344,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -386,7 +392,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testSellCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testSellCommand, mockKey);
@@ -434,7 +440,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -455,7 +461,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getTradingPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testBuyCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testBuyCommand, mockKey);
@@ -574,7 +580,7 @@ public class CommandExecutorTest {
         dummyMap.put("MUMMY", 0.002);
         dummyMap.put("TUMMY", 1242.222);
 
-        when(mockApiCall.getMarketChart()).thenReturn(dummyMap);
+        when(mockApiCall.getPrices(any())).thenReturn(PriceSnapshot.of(dummyMap));
 
         Command testWalletSummaryCommand = CommandCreator.newCommand(testInput);
         String result = executor.execute(testWalletSummaryCommand, mockKey);
@@ -656,11 +662,8 @@ public class CommandExecutorTest {
         Account accountAdmin = Account.fromCSV("1;test1;test1;40.0");
         Account accountToMakeAdmin = Account.fromCSV("0;test2;test1;20.0");
 
-        Set<Account> database = new HashSet<>();
-        database.add(accountAdmin);
-        database.add(accountToMakeAdmin);
-
-        when(mockDatabase.getDatabase()).thenReturn(database);
+        accountStore.putIfAbsent(accountAdmin);
+        accountStore.putIfAbsent(accountToMakeAdmin);
         when(mockKey.attachment()).thenReturn(accountAdmin);
 
         Command testMakeAdminCommand = CommandCreator.newCommand(testInput);
@@ -668,6 +671,8 @@ public class CommandExecutorTest {
 
         assertTrue(result.contains("admin rights"),
             "Expected successfully made admin message but was " + result);
+        assertTrue(accountStore.getAdmins().contains(accountToMakeAdmin),
+            "Expected the new admin to be indexed");
     }
 
     @Test
@@ -757,4 +762,44 @@ public class CommandExecutorTest {
         assertTrue(result.contains("Unknown command"),
             "Expected unknown command message but was " + result);
     }
-}
\ No newline at end of file
+
+    @Test
+    void testMayBlockForCommandsUsingApiOrDatabase() {
+        assertTrue(executor.mayBlock(CommandCreator.newCommand("buy BTC 10")),
+            "Expected buy to be marked as blocking because it requests the market chart");
+        assertTrue(executor.mayBlock(CommandCreator.newCommand("register test1 test1")),
+            "Expected register to be marked as blocking because it saves the database");
+        assertTrue(executor.mayBlock(CommandCreator.newCommand("login test1 test1")),
+            "Expected login to be marked as blocking because it may read the account from disk");
+        assertFalse(executor.mayBlock(CommandCreator.newCommand("get-wallet-summary")),
+            "Expected get-wallet-summary not to be marked as blocking");
+    }
+
+    @Test
+    void testConcurrentDepositsOnSameAccountAreSerialized() throws InterruptedException {
+        Account account = new Account("test1", "test");
+        SelectionKey[] keys = new SelectionKey[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = mock(SelectionKey.class);
+            when(keys[i].attachment()).thenReturn(account);
+        }
+        Command testDepositCommand = CommandCreator.newCommand("deposit-money 1");
+
+        Thread[] threads = new Thread[keys.length];
+        for (int i = 0; i < threads.length; i++) {
+            SelectionKey key = keys[i];
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 1000; j++) {
+                    executor.execute(testDepositCommand, key);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(4000.0, account.getWallet().getBalance(),
+            "Expected no deposit to be lost when the same account is used from several threads");
+    }
+}
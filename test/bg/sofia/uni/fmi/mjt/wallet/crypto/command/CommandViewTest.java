@@ -0,0 +1,89 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.command;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class CommandViewTest {
+
+    private final CommandView view = new CommandView();
+
+    private CommandView parse(String clientInput) {
+        byte[] bytes = clientInput.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocateDirect(bytes.length);
+        frame.put(bytes);
+
+        return view.parse(frame, 0, bytes.length);
+    }
+
+    @Test
+    void testParseResolvesTypeAndArguments() {
+        CommandView command = parse("buy BTC 10");
+
+        assertEquals(CommandType.BUY, command.type(),
+            "Expected the command name to be resolved to its type");
+        assertEquals(2, command.argumentCount(),
+            "Expected two arguments");
+        assertEquals("BTC", command.argument(0),
+            "Expected the first argument to be the asset id");
+        assertEquals(10.0, command.numericArgument(1),
+            "Expected the second argument to be parsed as a number");
+    }
+
+    @Test
+    void testParseMatchesCommandCreatorForQuotes() {
+        String[] inputs = {"register \"test 1\" \"pass\"", "buy \"BTC 50", "login  test1 test", "", "make-admin"};
+
+        for (String input : inputs) {
+            Command expected = CommandCreator.newCommand(input);
+            Command actual = parse(input).toCommand();
+
+            assertEquals(expected.command(), actual.command(),
+                "Expected the same command name for " + input);
+            assertArrayEquals(expected.arguments(), actual.arguments(),
+                "Expected the same arguments for " + input);
+        }
+    }
+
+    @Test
+    void testParseUnknownCommand() {
+        assertEquals(CommandType.UNKNOWN, parse("buyy BTC 10").type(),
+            "Expected an unrecognised name to be unknown");
+    }
+
+    @Test
+    void testNumericArgumentMatchesParseDouble() {
+        String[] numbers = {"0", "500", "-12.5", "0.1", "123.456789", ".5", "7.", "1e3", "12345678901234567890.5"};
+
+        for (String number : numbers) {
+            assertEquals(Double.parseDouble(number), parse("deposit-money " + number).numericArgument(0),
+                "Expected the same value as Double.parseDouble for " + number);
+        }
+    }
+
+    @Test
+    void testNumericArgumentThrowsForInvalidNumber() {
+        CommandView command = parse("deposit-money abc");
+
+        assertThrows(NumberFormatException.class, () -> command.numericArgument(0),
+            "Expected an invalid number to be rejected");
+    }
+
+    @Test
+    void testViewIsReusedAcrossFrames() {
+        parse("login test1 test");
+        CommandView command = parse("sell ETH");
+
+        assertEquals(CommandType.SELL, command.type(),
+            "Expected the view to describe the latest frame");
+        assertEquals(1, command.argumentCount(),
+            "Expected the arguments of the previous frame to be discarded");
+        assertEquals("ETH", command.argument(0),
+            "Expected the argument of the latest frame");
+    }
+}
@@ -0,0 +1,82 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class AccountFileLoaderTest {
+
+    private static final Path TEST_FILE_PATH = Paths.get("test-loader-accounts.txt");
+    private static final int ACCOUNT_COUNT = 30_000;
+    private static final String PASSWORD_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
+
+    private static String record(int i) {
+        return (i % 7 == 0 ? 1 : 0) + ";user" + i + ";" + PASSWORD_HASH + ";" + (i * 0.25)
+            + (i % 2 == 0 ? ";BTC;" + (i / 3.0) + ";" + i + ".5" : "");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(TEST_FILE_PATH);
+    }
+
+    @Test
+    void testIndexFindsEveryRecordOfLargeFileLikeFromCSV() throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(TEST_FILE_PATH)) {
+            for (int i = 0; i < ACCOUNT_COUNT; i++) {
+                writer.write(record(i));
+            }
+            writer.commit();
+        }
+
+        try (AccountIndex index = AccountIndex.open(TEST_FILE_PATH)) {
+            assertEquals(ACCOUNT_COUNT, index.size(),
+                "Expected every record of the file to be indexed");
+            for (int i = 0; i < ACCOUNT_COUNT; i += 997) {
+                assertEquals(Account.fromCSV(record(i)).toCSV(), index.read("user" + i).toCSV(),
+                    "Expected the read account to match the one parsed by fromCSV");
+            }
+            assertNull(index.read("missing"), "Expected no account for a username that is not in the file");
+        }
+    }
+
+    @Test
+    void testFileCutOffAtRecordBoundaryIsRejected() throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(TEST_FILE_PATH)) {
+            for (int i = 0; i < 3; i++) {
+                writer.write(record(i));
+            }
+            writer.commit();
+        }
+        String snapshot = Files.readString(TEST_FILE_PATH, StandardCharsets.UTF_8);
+        Files.writeString(TEST_FILE_PATH, snapshot.substring(0, snapshot.indexOf(record(2))),
+            StandardCharsets.UTF_8);
+
+        assertThrows(IOException.class, () -> AccountIndex.open(TEST_FILE_PATH),
+            "Expected a snapshot without its footer to be rejected");
+        assertThrows(IOException.class, () -> SnapshotReader.read(TEST_FILE_PATH, record -> { }),
+            "Expected a snapshot without its footer to be rejected when read in order");
+    }
+
+    @Test
+    void testLegacyFileWithoutFooterIsRead() throws IOException {
+        Files.writeString(TEST_FILE_PATH, record(1) + System.lineSeparator() + record(2) + System.lineSeparator(),
+            StandardCharsets.UTF_8);
+
+        try (AccountIndex index = AccountIndex.open(TEST_FILE_PATH)) {
+            assertEquals(2, index.size(), "Expected every record of a legacy file to be indexed");
+            assertEquals(Account.fromCSV(record(2)).toCSV(), index.read("user2").toCSV(),
+                "Expected the records of a legacy file to be read");
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class AccountStoreTest {
+
+    private final AccountStore accountStore = new AccountStore();
+
+    @Test
+    void testPutIfAbsentKeepsFirstAccountWithUsername() {
+        Account first = Account.fromCSV("0;test1;hash;10.0");
+        Account second = Account.fromCSV("0;test1;other;20.0");
+
+        assertNull(accountStore.putIfAbsent(first),
+            "Expected the first account to be added");
+        assertSame(first, accountStore.putIfAbsent(second),
+            "Expected the already stored account to be returned");
+        assertSame(first, accountStore.find("test1"),
+            "Expected the username index to point to the first account");
+        assertEquals(1, accountStore.size(),
+            "Expected a single account");
+    }
+
+    @Test
+    void testIndexesAdminsAndHolders() {
+        Account admin = Account.fromCSV("1;test1;hash;0.0;BTC;0.5;100.0");
+        Account holder = Account.fromCSV("0;test2;hash;0.0;BTC;0.1;20.0;ETH;2.0;30.0");
+
+        accountStore.putIfAbsent(admin);
+        accountStore.putIfAbsent(holder);
+
+        assertTrue(accountStore.getAdmins().contains(admin),
+            "Expected the admin to be indexed");
+        assertFalse(accountStore.getAdmins().contains(holder),
+            "Expected a regular account not to be indexed as admin");
+        assertEquals(2, accountStore.getHolders("BTC").size(),
+            "Expected both accounts to be holders of BTC");
+        assertTrue(accountStore.getHolders("ETH").contains(holder),
+            "Expected the second account to be a holder of ETH");
+    }
+
+    @Test
+    void testReindexRemovesSoldAssets() {
+        Account holder = Account.fromCSV("0;test2;hash;0.0;BTC;0.1;20.0");
+        accountStore.putIfAbsent(holder);
+
+        holder.getWallet().sellCrypto("BTC", 100.0);
+        accountStore.reindex(holder);
+
+        assertTrue(accountStore.getHolders("BTC").isEmpty(),
+            "Expected the account to no longer be a holder of the sold asset");
+    }
+
+    @Test
+    void testAccountUsedAgainOutlivesAccountsUsedOnce() {
+        FakeSource source = new FakeSource();
+        for (int i = 0; i < 20; i++) {
+            source.stored.put("test" + i, "0;test" + i + ";hash;" + i + ".0");
+        }
+        AccountStore boundedStore = new AccountStore(source, 2);
+
+        Account hot = boundedStore.find("test0");
+        boundedStore.find("test0");
+        for (int i = 1; i < 20; i++) {
+            boundedStore.find("test" + i);
+        }
+
+        assertSame(hot, boundedStore.find("test0"),
+            "Expected the account used twice to stay resident");
+        assertTrue(boundedStore.getResidentCount() <= 2,
+            "Expected the accounts used once to be evicted");
+    }
+
+    @Test
+    void testPinnedAccountIsNeverEvicted() {
+        FakeSource source = new FakeSource();
+        for (int i = 0; i < 20; i++) {
+            source.stored.put("test" + i, "0;test" + i + ";hash;" + i + ".0");
+        }
+        AccountStore boundedStore = new AccountStore(source, 1);
+
+        Account pinned = boundedStore.find("test0");
+        boundedStore.pin(pinned);
+        for (int i = 1; i < 20; i++) {
+            boundedStore.find("test" + i);
+        }
+
+        assertSame(pinned, boundedStore.find("test0"),
+            "Expected the pinned account to stay resident");
+    }
+
+    @Test
+    void testDirtyEvictedAccountIsWrittenBack() {
+        FakeSource source = new FakeSource();
+        source.stored.put("test1", "0;test1;hash;10.0");
+        source.stored.put("test2", "0;test2;hash;20.0");
+        AccountStore boundedStore = new AccountStore(source, 1);
+
+        boundedStore.find("test1").getWallet().depositMoney(5.0);
+        boundedStore.find("test2");
+
+        assertEquals(15.0, source.load("test1").getWallet().getBalance(),
+            "Expected the change to be written back when the account was evicted");
+        assertEquals(15.0, boundedStore.find("test1").getWallet().getBalance(),
+            "Expected the account to be loaded again with the change");
+    }
+
+    private static final class FakeSource implements AccountSource {
+
+        private final Map<String, String> stored = new HashMap<>();
+
+        @Override
+        public Account load(String username) {
+            String record = stored.get(username);
+            return record == null ? null : Account.fromCSV(record);
+        }
+
+        @Override
+        public boolean isEmpty() {
+            return stored.isEmpty();
+        }
+
+        @Override
+        public void scan(String fromUsername, String toUsername, Consumer<Account> consumer) {
+            new TreeMap<>(stored).forEach((username, record) -> {
+                if (AccountSource.isInRange(username, fromUsername, toUsername)) {
+                    consumer.accept(Account.fromCSV(record));
+                }
+            });
+        }
+
+        @Override
+        public void writeBack(Account account) {
+            long version = account.getVersion();
+            stored.put(account.getUsername(), account.toCSV());
+            account.markPersisted(version);
+        }
+    }
+}
@@ -1,35 +1,52 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
 
 import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.AccountLocks;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
+import java.time.Duration;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.Lock;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertIterableEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class DatabaseTest {
+    private static final String PASSWORD_HASH = "9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08";
     private static final String TEST_USERS_INFO =
-        """
-            0;test1;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0                                                                                          
-            0;test2;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0                                                                        
-                        """;
+        record("test1", "0.0;PLC;1406.3994687999493;50.0") + "\n"
+            + record("test2", "0.0;PLC;1406.3994687999493;50.0") + "\n";
     private static final String TEST_OUTPUT_DIRECTORY = "test-database";
     private static final String TEST_DATABASE_FILE_NAME = "test-accounts.txt";
     private static final Path TEST_FILE_PATH = Paths.get(TEST_OUTPUT_DIRECTORY, TEST_DATABASE_FILE_NAME);
+    private static final Path TEST_LOG_PATH = Paths.get(TEST_OUTPUT_DIRECTORY, TEST_DATABASE_FILE_NAME + ".wal");
 
     private Database testDatabase;
     private Set<Account> testData;
 
+    private static String record(String username, String fields) {
+        return "0;" + username + ";" + PASSWORD_HASH + ";" + fields;
+    }
+
     @BeforeEach
     void setUp() {
         try {
@@ -45,7 +62,10 @@ public class DatabaseTest {
 
     @AfterEach
     void tearDown() {
-        TEST_FILE_PATH.toFile().delete();
+        File[] files = TEST_FILE_PATH.getParent().toFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            file.delete();
+        }
         TEST_FILE_PATH.getParent().toFile().delete();
     }
 
@@ -57,10 +77,10 @@ public class DatabaseTest {
             "Expected size of test database is 2, but was " + testDataSize);
 
         assertTrue(testData.contains(
-                Account.fromCSV("0;test1;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0")),
+                Account.fromCSV(record("test1", "0.0;PLC;1406.3994687999493;50.0"))),
             "Expected loaded data to contain account with name test1 but it did not");
         assertTrue(testData.contains(
-                Account.fromCSV("0;test2;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0")),
+                Account.fromCSV(record("test2", "0.0;PLC;1406.3994687999493;50.0"))),
             "Expected loaded data to contain account with name test2 but it did not");
     }
 
@@ -68,7 +88,7 @@ public class DatabaseTest {
     void testSaveData() {
         Set<Account> updatedTestData = new HashSet<>(testData);
         updatedTestData.add(
-            Account.fromCSV("0;test3;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0"));
+            Account.fromCSV(record("test3", "0.0;PLC;1406.3994687999493;50.0")));
 
         testDatabase.updateData(updatedTestData);
 
@@ -78,7 +98,7 @@ public class DatabaseTest {
             "Expected size of test database is 3, but was " + testDataSize);
 
         assertTrue(testData.contains(
-                Account.fromCSV("0;test3;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0")),
+                Account.fromCSV(record("test3", "0.0;PLC;1406.3994687999493;50.0"))),
             "Expected loaded data to contain account with name test3 but it did not");
     }
 
@@ -86,7 +106,7 @@ public class DatabaseTest {
     void testUpdateData() {
         Set<Account> updatedTestData = new HashSet<>(testData);
         updatedTestData.add(
-            Account.fromCSV("0;test3;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0"));
+            Account.fromCSV(record("test3", "0.0;PLC;1406.3994687999493;50.0")));
 
         testDatabase.updateData(updatedTestData);
 
@@ -100,7 +120,7 @@ public class DatabaseTest {
     void testShutdownScheduler() {
         Set<Account> updatedTestData = new HashSet<>(testData);
         updatedTestData.add(
-            Account.fromCSV("0;test3;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0"));
+            Account.fromCSV(record("test3", "0.0;PLC;1406.3994687999493;50.0")));
 
         testDatabase.shutdownScheduler(updatedTestData);
 
@@ -109,9 +129,299 @@ public class DatabaseTest {
         try {
             String fileContent = Files.readString(TEST_FILE_PATH, StandardCharsets.UTF_8);
             assertTrue(fileContent.contains(
-                "0;test3;9f86d081884c7d659a2feaa0c55ad015a3bf4f1b2b0b822cd15d6c15b0f00a08;0.0;PLC;1406.3994687999493;50.0"));
+                record("test3", "0.0;PLC;1406.3994687999493;50.0")));
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
+
+    @Test
+    void testRecordedChangesAreReplayedOnStartup() {
+        Account account = testDatabase.getAccountStore().find("test1");
+        account.getWallet().depositMoney(25.0);
+        testDatabase.recordChange(AccountChange.DEPOSIT, account).join();
+        testDatabase.close();
+
+        Database restartedDatabase = new Database(TEST_FILE_PATH);
+
+        assertEquals(25.0, restartedDatabase.getAccountStore().find("test1").getWallet().getBalance(),
+            "Expected the deposit to be restored from the log");
+        restartedDatabase.close();
+    }
+
+    @Test
+    void testLoadStatsCountIndexedAccounts() throws IOException {
+        LoadStats stats = testDatabase.getLoadStats();
+
+        assertEquals(2, stats.accounts(), "Expected both accounts of the file to be indexed");
+        assertEquals(Files.size(TEST_FILE_PATH), stats.bytes(), "Expected the whole file to be indexed");
+        assertEquals(1, stats.shards(), "Expected the accounts to be kept in a single shard");
+    }
+
+    @Test
+    void testUpdateDataCompactsLogIntoSnapshot() throws IOException {
+        Account account = testDatabase.getAccountStore().find("test2");
+        account.getWallet().depositMoney(10.0);
+        testDatabase.recordChange(AccountChange.DEPOSIT, account).join();
+
+        testDatabase.updateData(Set.of());
+
+        assertEquals(0, Files.size(TEST_LOG_PATH),
+            "Expected the log to be emptied once the snapshot covers it");
+        assertTrue(Files.readString(TEST_FILE_PATH, StandardCharsets.UTF_8).contains(
+                "test2;" + PASSWORD_HASH + ";10.0"),
+            "Expected the snapshot to hold the deposit");
+    }
+
+    @Test
+    void testFlushWritesOnlyChangedAccounts() throws IOException {
+        Account account = testDatabase.getAccountStore().find("test1");
+        account.getWallet().depositMoney(5.0);
+        testDatabase.recordChange(AccountChange.DEPOSIT, account).join();
+
+        testDatabase.flush();
+
+        Path delta = Paths.get(TEST_OUTPUT_DIRECTORY, TEST_DATABASE_FILE_NAME + ".delta.0");
+        String deltaContent = Files.readString(delta, StandardCharsets.UTF_8);
+        assertTrue(deltaContent.contains("test1;"),
+            "Expected the changed account in the delta file");
+        assertFalse(deltaContent.contains("test2;"),
+            "Expected the unchanged account to be left out of the delta file");
+        assertFalse(account.isDirty(),
+            "Expected the flushed account to be clean");
+
+        testDatabase.close();
+        Database restartedDatabase = new Database(TEST_FILE_PATH);
+        assertEquals(5.0, restartedDatabase.getAccountStore().find("test1").getWallet().getBalance(),
+            "Expected the deposit to be restored from the delta file");
+        restartedDatabase.close();
+    }
+
+    @Test
+    void testCorruptedSnapshotIsRejected() throws IOException {
+        testDatabase.updateData(Set.of(
+            Account.fromCSV(record("test3", "0.0"))));
+
+        String snapshot = Files.readString(TEST_FILE_PATH, StandardCharsets.UTF_8);
+        assertTrue(snapshot.contains("#snapshot;3;"),
+            "Expected the snapshot to end with a footer holding the record count");
+
+        testDatabase.close();
+        Files.writeString(TEST_FILE_PATH, snapshot.replace("test3;", "test4;"), StandardCharsets.UTF_8);
+
+        Database corruptedDatabase = new Database(TEST_FILE_PATH);
+        assertThrows(UncheckedIOException.class, () -> corruptedDatabase.get("test1"),
+            "Expected a snapshot whose records do not match its checksum to be rejected");
+        corruptedDatabase.close();
+    }
+
+    @Test
+    void testFlushDoesNotWaitForAccountLocks() throws InterruptedException, IOException {
+        Account account = testDatabase.getAccountStore().find("test1");
+        Lock accountLock = AccountLocks.forAccount(account);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch flushed = new CountDownLatch(1);
+
+        Thread trader = Thread.ofVirtual().start(() -> {
+            accountLock.lock();
+            try {
+                account.getWallet().depositMoney(15.0);
+                testDatabase.recordChange(AccountChange.DEPOSIT, account);
+                locked.countDown();
+                flushed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                accountLock.unlock();
+            }
+        });
+
+        locked.await();
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> testDatabase.flush(),
+            "Expected the flush to read the account while its lock is held");
+        flushed.countDown();
+        trader.join();
+
+        Path delta = Paths.get(TEST_OUTPUT_DIRECTORY, TEST_DATABASE_FILE_NAME + ".delta.0");
+        assertTrue(Files.readString(delta, StandardCharsets.UTF_8).contains(
+                "test1;" + PASSWORD_HASH + ";15.0"),
+            "Expected the flushed state to include the deposit");
+    }
+
+    @Test
+    void testAccountsAreLoadedOnLookupAndEvictedChangesKept() {
+        testDatabase.shutdownScheduler(Set.of());
+        Database boundedDatabase = new Database(TEST_FILE_PATH, 1);
+
+        assertEquals(0, boundedDatabase.getAccountStore().getResidentCount(),
+            "Expected no accounts to be loaded on startup");
+
+        Account account = boundedDatabase.getAccountStore().find("test1");
+        account.getWallet().depositMoney(7.0);
+        boundedDatabase.recordChange(AccountChange.DEPOSIT, account).join();
+        boundedDatabase.getAccountStore().find("test2");
+
+        assertEquals(1, boundedDatabase.getAccountStore().getResidentCount(),
+            "Expected the first account to be evicted");
+        assertEquals(7.0, boundedDatabase.getAccountStore().find("test1").getWallet().getBalance(),
+            "Expected the evicted account to be loaded again with its change");
+
+        boundedDatabase.shutdownScheduler(Set.of());
+        Database restartedDatabase = new Database(TEST_FILE_PATH, 1);
+
+        assertEquals(7.0, restartedDatabase.getAccountStore().find("test1").getWallet().getBalance(),
+            "Expected the change to be persisted");
+        restartedDatabase.close();
+    }
+
+    @Test
+    void testDeletedAccountStaysDeletedAfterRestart() {
+        assertTrue(testDatabase.delete("test1"),
+            "Expected the stored account to be deleted");
+        assertFalse(testDatabase.delete("test1"),
+            "Expected nothing to delete the second time");
+        assertNull(testDatabase.get("test1"),
+            "Expected the deleted account not to be found");
+
+        testDatabase.close();
+        Database restartedDatabase = new Database(TEST_FILE_PATH);
+        assertNull(restartedDatabase.get("test1"),
+            "Expected the delete to be restored from the log");
+
+        restartedDatabase.shutdownScheduler(Set.of());
+        Database mergedDatabase = new Database(TEST_FILE_PATH);
+        assertNull(mergedDatabase.get("test1"),
+            "Expected the deleted account to be left out of the merged file");
+        assertEquals(1, mergedDatabase.getDatabase().size(),
+            "Expected only the other account to be stored");
+        mergedDatabase.close();
+    }
+
+    @Test
+    void testScanReturnsRangeInUsernameOrder() {
+        for (int i = 3; i <= 12; i++) {
+            testDatabase.put(Account.fromCSV(record("test" + i, i + ".0")));
+        }
+        testDatabase.flush();
+        testDatabase.delete("test11");
+
+        List<String> usernames = testDatabase.scan("test1", "test3").stream()
+            .map(Account::getUsername)
+            .toList();
+
+        assertIterableEquals(List.of("test1", "test10", "test12", "test2"), usernames,
+            "Expected the accounts in the range, in username order, without the deleted one");
+    }
+
+    @Test
+    void testCompactedDeltaFilesKeepLatestRecords() throws IOException {
+        for (int i = 1; i <= 3; i++) {
+            Account account = testDatabase.get("test1");
+            account.getWallet().depositMoney(1.0);
+            testDatabase.recordChange(AccountChange.DEPOSIT, account);
+            testDatabase.put(Account.fromCSV(record("test" + (i + 2), "0.0")));
+            testDatabase.flush();
+        }
+        AccountFiles accountFiles = new AccountFiles(TEST_FILE_PATH);
+
+        accountFiles.compact();
+
+        assertEquals(1, accountFiles.getDeltaCount(),
+            "Expected the delta files to be merged into one");
+        assertEquals(4, accountFiles.getDeltaRecordCount(),
+            "Expected a single record for every changed account");
+        assertEquals(3.0, accountFiles.load("test1").getWallet().getBalance(),
+            "Expected the latest record to win");
+        accountFiles.close();
+    }
+
+    @Test
+    void testChangesAreForcedToDiskInBatches() {
+        testDatabase.shutdownScheduler(Set.of());
+        Database batchingDatabase = new Database(TEST_FILE_PATH, 1_000, 64, Duration.ofMillis(50));
+        Account account = batchingDatabase.get("test1");
+
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            account.getWallet().depositMoney(1.0);
+            commits.add(batchingDatabase.recordChange(AccountChange.DEPOSIT, account));
+        }
+        commits.forEach(CompletableFuture::join);
+
+        CommitStats stats = batchingDatabase.getCommitStats();
+        assertEquals(20, stats.records(),
+            "Expected every change to be committed");
+        assertTrue(stats.batches() < stats.records(),
+            "Expected changes appended together to share a force, but there were " + stats.batches() + " batches");
+        batchingDatabase.shutdownScheduler(Set.of());
+    }
+
+    @Test
+    void testShardsAreFlushedAndRecoveredOnTheirOwn() throws IOException {
+        testDatabase.shutdownScheduler(Set.of());
+        tearDown();
+        ShardLayout layout = new ShardLayout(TEST_FILE_PATH, 4);
+        Database shardedDatabase = new Database(TEST_FILE_PATH, 1_000, 4);
+        for (int i = 0; i < 40; i++) {
+            shardedDatabase.put(Account.fromCSV(record("user" + i, i + ".0")));
+        }
+        shardedDatabase.shutdownScheduler(Set.of());
+
+        for (int shard = 0; shard < 4; shard++) {
+            String content = Files.readString(layout.shardPath(shard), StandardCharsets.UTF_8);
+            for (int i = 0; i < 40; i++) {
+                assertEquals(layout.shardOf("user" + i) == shard, content.contains("user" + i + ";"),
+                    "Expected every account to be stored in the shard its username hashes to");
+            }
+        }
+
+        Path corrupted = layout.shardPath(layout.shardOf("user0"));
+        Files.writeString(corrupted, Files.readString(corrupted, StandardCharsets.UTF_8).replace("user0;", "userX;"),
+            StandardCharsets.UTF_8);
+        Database restartedDatabase = new Database(TEST_FILE_PATH, 1_000, 4);
+
+        assertThrows(UncheckedIOException.class, () -> restartedDatabase.get("user0"),
+            "Expected the accounts of the corrupted shard to be unavailable");
+        for (int i = 1; i < 40; i++) {
+            if (layout.shardOf("user" + i) != layout.shardOf("user0")) {
+                assertEquals(i, restartedDatabase.get("user" + i).getWallet().getBalance(),
+                    "Expected the accounts of the other shards to be recovered");
+            }
+        }
+        restartedDatabase.close();
+        assertThrows(IllegalStateException.class, () -> new Database(TEST_FILE_PATH, 1_000, 2),
+            "Expected a shard count other than the stored one to be rejected");
+    }
+
+    @Test
+    void testReshardMovesAccountsToNewShards() throws IOException {
+        Account account = testDatabase.get("test1");
+        account.getWallet().depositMoney(3.0);
+        testDatabase.recordChange(AccountChange.DEPOSIT, account).join();
+        testDatabase.delete("test2");
+        testDatabase.put(Account.fromCSV(record("test3", "0.0")));
+        testDatabase.shutdownScheduler(Set.of());
+
+        assertEquals(2, Reshard.reshard(TEST_FILE_PATH, 3),
+            "Expected the logged changes to be applied before the accounts are moved");
+        assertFalse(Files.exists(TEST_FILE_PATH),
+            "Expected the files of the previous layout to be deleted");
+
+        Database reshardedDatabase = new Database(TEST_FILE_PATH);
+        assertEquals(3.0, reshardedDatabase.get("test1").getWallet().getBalance(),
+            "Expected the accounts to be read from the new shards");
+        assertNull(reshardedDatabase.get("test2"),
+            "Expected the deleted account to stay deleted");
+        assertIterableEquals(List.of("test1", "test3"),
+            reshardedDatabase.scan(null, null).stream().map(Account::getUsername).toList(),
+            "Expected a scan to merge the shards in username order");
+        reshardedDatabase.shutdownScheduler(Set.of());
+
+        assertEquals(2, Reshard.reshard(TEST_FILE_PATH, 1),
+            "Expected the accounts to be moved back to a single shard");
+        Database mergedDatabase = new Database(TEST_FILE_PATH);
+        assertEquals(2, mergedDatabase.getDatabase().size(),
+            "Expected the single shard to hold every account");
+        mergedDatabase.close();
+    }
 }
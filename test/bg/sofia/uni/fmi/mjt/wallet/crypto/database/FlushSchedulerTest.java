@@ -0,0 +1,101 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class FlushSchedulerTest {
+
+    private static final long MIN_INTERVAL = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long MAX_INTERVAL = TimeUnit.MINUTES.toNanos(1);
+
+    @Test
+    void testRequestsDuringFlushShareTheNextFlush() throws InterruptedException {
+        CountDownLatch running = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger runs = new AtomicInteger();
+        FlushScheduler scheduler = new FlushScheduler(() -> {
+            if (runs.getAndIncrement() == 0) {
+                running.countDown();
+                awaitQuietly(release);
+            }
+        }, e -> { }, MIN_INTERVAL, MAX_INTERVAL, 1_000);
+
+        CompletableFuture<Void> first = scheduler.requestFlush();
+        running.await();
+        List<CompletableFuture<Void>> waiting = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            waiting.add(scheduler.requestFlush());
+        }
+        release.countDown();
+        waiting.forEach(CompletableFuture::join);
+        first.join();
+
+        waiting.forEach(request -> assertSame(waiting.getFirst(), request,
+            "Expected the requests made during a flush to wait for the same flush"));
+        assertEquals(2, scheduler.getStats().flushes(),
+            "Expected a single flush to serve every request made while the first one ran");
+        assertEquals(6, scheduler.getStats().requests(),
+            "Expected every request to be counted");
+        scheduler.close();
+    }
+
+    @Test
+    void testWaitingChangesStartFlushEarly() {
+        AtomicInteger runs = new AtomicInteger();
+        FlushScheduler scheduler = new FlushScheduler(runs::incrementAndGet, e -> { },
+            MIN_INTERVAL, MAX_INTERVAL, 100);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+            for (int i = 0; i < 100; i++) {
+                scheduler.onChange();
+            }
+            while (runs.get() == 0) {
+                Thread.onSpinWait();
+            }
+        }, "Expected a flush once the target number of changes was waiting");
+        assertTrue(scheduler.getStats().intervalNanos() < MAX_INTERVAL,
+            "Expected the interval to shorten with the write rate");
+        scheduler.close();
+    }
+
+    @Test
+    void testFailedFlushIsReported() {
+        List<RuntimeException> reported = new ArrayList<>();
+        UncheckedIOException failure = new UncheckedIOException(new IOException("disk full"));
+        FlushScheduler scheduler = new FlushScheduler(() -> {
+            throw failure;
+        }, reported::add, MIN_INTERVAL, MAX_INTERVAL, 1_000);
+
+        assertSame(failure, assertThrows(UncheckedIOException.class, scheduler::flushAndWait),
+            "Expected the caller to get the failure of the flush");
+        scheduler.close();
+
+        assertEquals(List.of(failure), reported,
+            "Expected the failure to be passed to the handler");
+        assertThrows(IllegalStateException.class, scheduler::flushAndWait,
+            "Expected flushes to be refused once the scheduler is closed");
+    }
+
+    private static void awaitQuietly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
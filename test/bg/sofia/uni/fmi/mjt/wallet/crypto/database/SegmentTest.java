@@ -0,0 +1,101 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class SegmentTest {
+
+    private static final Path TEST_FILE_PATH = Paths.get("test-segment.delta.0");
+    private static final int RECORD_COUNT = 1_000;
+
+    private static String record(int i) {
+        return "0;user" + String.format("%05d", i) + ";hash;" + i + ".0";
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        Files.deleteIfExists(TEST_FILE_PATH);
+    }
+
+    @Test
+    void testFindReadsRecordsAndTombstones() throws IOException {
+        try (Segment segment = writeRecords()) {
+            for (int i = 0; i < RECORD_COUNT; i += 37) {
+                assertEquals(record(i), segment.find("user" + String.format("%05d", i)),
+                    "Expected the record of the username to be found");
+            }
+            assertTrue(Segment.isTombstone(segment.find("user99999")),
+                "Expected the tombstone of the deleted account to be found");
+            assertNull(segment.find("missing"),
+                "Expected no record for a username that is not in the segment");
+        }
+    }
+
+    @Test
+    void testCursorStartsAtBlockOfUsername() throws IOException {
+        List<String> records = new ArrayList<>();
+
+        try (Segment segment = writeRecords(); Segment.Cursor cursor = segment.cursor("user00500")) {
+            while (cursor.next()) {
+                if (cursor.username().compareTo("user00500") >= 0) {
+                    records.add(cursor.record());
+                }
+            }
+        }
+
+        assertEquals(RECORD_COUNT - 500 + 1, records.size(),
+            "Expected every record from the username on, and the tombstone");
+        assertEquals(record(500), records.getFirst(),
+            "Expected the records to be in username order");
+    }
+
+    @Test
+    void testUnsortedRecordsAreRejected() throws IOException {
+        try (Segment.Writer writer = new Segment.Writer(TEST_FILE_PATH)) {
+            writer.write(record(2));
+
+            assertThrows(IllegalArgumentException.class, () -> writer.write(record(1)),
+                "Expected records out of username order to be rejected");
+        }
+    }
+
+    @Test
+    void testOpenSortsLegacyDeltaFile() throws IOException {
+        try (SnapshotWriter writer = new SnapshotWriter(TEST_FILE_PATH)) {
+            writer.write(record(3));
+            writer.write(record(1));
+            writer.write(record(2));
+            writer.commit();
+        }
+
+        try (Segment segment = Segment.open(TEST_FILE_PATH)) {
+            assertEquals(record(1), segment.find("user00001"),
+                "Expected the record to be found once the file is sorted");
+            assertEquals(3, segment.count(),
+                "Expected every record to be kept");
+        }
+    }
+
+    private static Segment writeRecords() throws IOException {
+        try (Segment.Writer writer = new Segment.Writer(TEST_FILE_PATH)) {
+            for (int i = 0; i < RECORD_COUNT; i++) {
+                writer.write(record(i));
+            }
+            writer.write(Segment.tombstone("user99999"));
+
+            return writer.commit();
+        }
+    }
+}
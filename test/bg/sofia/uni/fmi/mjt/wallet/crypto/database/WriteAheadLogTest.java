@@ -0,0 +1,44 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.database;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.account.Account;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+public class WriteAheadLogTest {
+
+    private static final Path FULL_DEVICE = Paths.get("/dev/full");
+
+    @Test
+    void testWriteFailureIsHandledBeforeWaitersAreFailed() throws IOException {
+        assumeTrue(Files.isWritable(FULL_DEVICE), "Needs a device whose writes fail");
+
+        AtomicBoolean handled = new AtomicBoolean();
+        AtomicBoolean waiterFailedFirst = new AtomicBoolean();
+        CompletableFuture<Void> commit;
+        try (WriteAheadLog log = new WriteAheadLog(FULL_DEVICE, 16, 0, e -> handled.set(true))) {
+            commit = log.append(AccountChange.DEPOSIT, Account.register("test1", "test1"));
+            commit.whenComplete((ignored, failure) -> waiterFailedFirst.set(!handled.get()));
+
+            assertThrows(CompletionException.class, commit::join,
+                "Expected the caller to learn that the record was not logged");
+        } catch (IOException e) {
+            // Forcing the device on close fails as well
+        }
+
+        assertTrue(handled.get(), "Expected the write failure to be passed to the handler");
+        assertFalse(waiterFailedFirst.get(),
+            "Expected the handler to run before the waiting caller is told");
+    }
+}
@@ -1,36 +1,62 @@
 package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
 
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
 import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.FailedRequestException;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.exception.StalePricesException;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
-import org.mockito.InjectMocks;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 public class ApiCallTest {
     private static final String DUMMY_API_KEY = "dummy-api-key";
 
+    private static final String TEST_JSON_ARRAY = """
+        [
+           {
+              "asset_id": "DUMMY",
+              "type_is_crypto": 1,
+              "price_usd": 0.001
+           }
+        ]
+        """;
+
     @Mock
     private HttpClient mockClient;
-    @InjectMocks
     private ApiCall mockApiCall;
 
     @BeforeEach
     void setUp() {
         MockitoAnnotations.openMocks(this);
+        mockApiCall = new ApiCall(mockClient, DUMMY_API_KEY);
     }
 
     @Test
@@ -60,9 +86,9 @@ public class ApiCallTest {
         System.out.println(testJsonArray);
 
         HttpResponse mockResponse = mock();
-        when(mockClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-            .thenReturn(mockResponse);
-        when(mockResponse.body()).thenReturn(testJsonArray);
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(testJsonArray));
 
         when(mockResponse.statusCode()).thenReturn(200);
 
@@ -81,8 +107,8 @@ public class ApiCallTest {
         dummyMap.put("TUMMY", 1242.222);
 
         HttpResponse mockResponse = mock();
-        when(mockClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-            .thenReturn(mockResponse);
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
         when(mockResponse.statusCode()).thenReturn(400);
 
         assertThrows(FailedRequestException.class,
@@ -94,12 +120,132 @@ public class ApiCallTest {
     void testGetMarketChartThrowsExceptionWhenCode5xx() throws IOException, InterruptedException {
 
         HttpResponse mockResponse = mock();
-        when(mockClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
-            .thenReturn(mockResponse);
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
         when(mockResponse.statusCode()).thenReturn(500);
 
         assertThrows(FailedRequestException.class,
             () -> mockApiCall.getMarketChart(),
             "Expected FailedRequestException but was not thrown");
     }
+
+    @Test
+    void testOnlyRequestedAssetsAreFetched() throws Exception {
+        HttpResponse mockResponse = mock();
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(TEST_JSON_ARRAY));
+        when(mockResponse.statusCode()).thenReturn(200);
+
+        PriceSnapshot prices = mockApiCall.getPrices(List.of("DUMMY"));
+        assertSame(prices, mockApiCall.getPrices(List.of("DUMMY")),
+            "Expected the prices of assets already fetched to be served without a new call");
+        PriceSnapshot withMissing = mockApiCall.getPrices(List.of("MISSING"));
+        mockApiCall.getPrices(List.of("MISSING"));
+
+        ArgumentCaptor<HttpRequest> requests = ArgumentCaptor.forClass(HttpRequest.class);
+        verify(mockClient, times(2)).sendAsync(requests.capture(), any(HttpResponse.BodyHandler.class));
+        assertEquals("filter_asset_id=DUMMY", requests.getAllValues().get(0).uri().getQuery(),
+            "Expected only the requested asset to be fetched");
+        assertEquals("filter_asset_id=DUMMY;MISSING", requests.getAllValues().get(1).uri().getQuery(),
+            "Expected a missing asset to be fetched together with the tracked ones");
+        assertTrue(Double.isNaN(withMissing.priceOf("MISSING")),
+            "Expected no price for an asset the API did not return");
+        mockApiCall.shutdownScheduler();
+    }
+
+    @Test
+    void testFailedRefreshKeepsServingLastPrices() throws Exception {
+        ServerLogger mockLogger = mock();
+        ApiCall refreshingApiCall = new ApiCall(mockClient, DUMMY_API_KEY, mockLogger, Duration.ofMillis(10),
+            Duration.ofMillis(10), Duration.ofMillis(200));
+        HttpResponse mockResponse = mock();
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(TEST_JSON_ARRAY));
+        when(mockResponse.statusCode()).thenReturn(200, 500);
+
+        PriceSnapshot prices = refreshingApiCall.getTradingPrices(List.of("DUMMY"));
+        verify(mockClient, timeout(1_000).atLeast(3))
+            .sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+
+        assertSame(prices, refreshingApiCall.getPrices(List.of("DUMMY")),
+            "Expected the last prices fetched to be served while refreshes fail");
+        verify(mockLogger, atLeastOnce()).logError(anyString(), any(StackTraceElement[].class));
+        refreshingApiCall.shutdownScheduler();
+    }
+
+    @Test
+    void testTradesAreRefusedWhenPricesAreTooOld() throws Exception {
+        ApiCall staleApiCall = new ApiCall(mockClient, DUMMY_API_KEY, Duration.ofHours(1),
+            Duration.ofHours(1), Duration.ofMillis(20));
+        HttpResponse mockResponse = mock();
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(TEST_JSON_ARRAY));
+        when(mockResponse.statusCode()).thenReturn(200, 500);
+
+        staleApiCall.getTradingPrices(List.of("DUMMY"));
+        Thread.sleep(50);
+
+        assertTrue(staleApiCall.getPricesAge().toMillis() >= 50,
+            "Expected the age of the prices to grow until they are refreshed");
+        assertEquals(1, staleApiCall.getPrices(List.of("DUMMY")).size(),
+            "Expected the old prices to still be served while they cannot be fetched again");
+        assertThrows(StalePricesException.class, () -> staleApiCall.getTradingPrices(List.of("DUMMY")),
+            "Expected trades to be refused once the prices are older than the maximum staleness and cannot be "
+                + "fetched again");
+        staleApiCall.shutdownScheduler();
+    }
+
+    @Test
+    void testTradeAfterQuietPeriodFetchesPricesAgain() throws Exception {
+        ApiCall quietApiCall = new ApiCall(mockClient, DUMMY_API_KEY, mock(ServerLogger.class), Duration.ofMillis(20),
+            Duration.ofMillis(20), Duration.ofMillis(100), Duration.ofMillis(5));
+        HttpResponse mockResponse = mock();
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(CompletableFuture.completedFuture(mockResponse));
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(TEST_JSON_ARRAY));
+        when(mockResponse.statusCode()).thenReturn(200);
+
+        quietApiCall.getTradingPrices(List.of("DUMMY"));
+        Thread.sleep(150);
+        verify(mockClient, times(1)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+
+        PriceSnapshot prices = quietApiCall.getTradingPrices(List.of("DUMMY"));
+
+        verify(mockClient, times(2)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        assertEquals(0.001, prices.priceOf("DUMMY"),
+            "Expected a trade after the refresher stopped to be served freshly fetched prices");
+        quietApiCall.shutdownScheduler();
+    }
+
+    @Test
+    void testConcurrentRequestsShareOneCall() throws Exception {
+        CompletableFuture<HttpResponse<InputStream>> pendingResponse = new CompletableFuture<>();
+        HttpResponse<InputStream> mockResponse = mock();
+        when(mockClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+            .thenReturn(pendingResponse);
+        when(mockResponse.body()).thenAnswer(invocation -> bodyOf(TEST_JSON_ARRAY));
+        when(mockResponse.statusCode()).thenReturn(200);
+
+        List<CompletableFuture<PriceSnapshot>> charts = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            charts.add(mockApiCall.getMarketChartAsync());
+        }
+        pendingResponse.complete(mockResponse);
+
+        verify(mockClient, times(1)).sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class));
+        for (CompletableFuture<PriceSnapshot> chart : charts) {
+            assertSame(charts.getFirst().join(), chart.join(),
+                "Expected every caller to get the chart of the shared call");
+        }
+        assertSame(charts.getFirst().join(), mockApiCall.getMarketChart(),
+            "Expected later calls to be served the fetched chart");
+        mockApiCall.shutdownScheduler();
+    }
+
+    private static InputStream bodyOf(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
 }
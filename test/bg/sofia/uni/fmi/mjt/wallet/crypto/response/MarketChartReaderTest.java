@@ -0,0 +1,53 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class MarketChartReaderTest {
+
+    private static InputStream streamOf(String json) {
+        return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void testReadKeepsOnlyCryptoAssetsWithValidPrices() throws IOException {
+        String json = """
+            [
+               {"asset_id": "BTC", "name": "Bitcoin", "type_is_crypto": 1, "price_usd": 42000.5,
+                "id_icon": {"nested": [1, 2, 3]}},
+               {"asset_id": "USD", "type_is_crypto": 0, "price_usd": 1.0},
+               {"asset_id": "DUST", "type_is_crypto": 1, "price_usd": 0.00001},
+               {"asset_id": "GOLDEN", "type_is_crypto": 1, "price_usd": 250000},
+               {"asset_id": "NOPRICE", "type_is_crypto": 1, "price_usd": null},
+               {"asset_id": "ETH", "type_is_crypto": 1, "price_usd": 2500}
+            ]
+            """;
+
+        PriceSnapshot prices = MarketChartReader.read(streamOf(json), 50);
+
+        assertEquals(Map.of("BTC", 42000.5, "ETH", 2500.0), prices.toMap(),
+            "Expected only crypto assets priced within the bounds, with every element read");
+    }
+
+    @Test
+    void testReadStopsOnceEnoughAssetsAreFound() throws IOException {
+        String json = """
+            [
+               {"asset_id": "BTC", "type_is_crypto": 1, "price_usd": 42000},
+               {"asset_id": "ETH", "type_is_crypto": 1, "price_usd": 2500},
+               {"this element": is never read
+            """;
+
+        PriceSnapshot prices = MarketChartReader.read(streamOf(json), 2);
+
+        assertEquals(2, prices.size(),
+            "Expected reading to stop before the rest of the stream once enough assets were found");
+    }
+}
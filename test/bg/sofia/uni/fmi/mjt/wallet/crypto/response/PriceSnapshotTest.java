@@ -0,0 +1,39 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.response;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class PriceSnapshotTest {
+
+    @Test
+    void testPriceOfMissingAssetIsNaN() {
+        PriceSnapshot.of(Map.of("SNAPSHOT-TEST-OTHER", 3.0));
+        PriceSnapshot snapshot = PriceSnapshot.of(Map.of("SNAPSHOT-TEST-BTC", 42000.0));
+
+        assertEquals(42000.0, snapshot.priceOf("SNAPSHOT-TEST-BTC"),
+            "Expected the price of an asset in the snapshot");
+        assertTrue(Double.isNaN(snapshot.priceOf("SNAPSHOT-TEST-OTHER")),
+            "Expected no price for an asset known only to another snapshot");
+        assertFalse(snapshot.contains("SNAPSHOT-TEST-UNKNOWN"),
+            "Expected no price for an asset never seen");
+    }
+
+    @Test
+    void testSnapshotsAreIndependent() {
+        PriceSnapshot older = PriceSnapshot.of(Map.of("SNAPSHOT-TEST-ETH", 2000.0));
+        PriceSnapshot newer = PriceSnapshot.of(Map.of("SNAPSHOT-TEST-ETH", 2500.0, "SNAPSHOT-TEST-ADA", 0.5));
+
+        assertEquals(2000.0, older.priceOf("SNAPSHOT-TEST-ETH"),
+            "Expected a newer snapshot to leave the older one unchanged");
+        assertEquals(Map.of("SNAPSHOT-TEST-ETH", 2500.0, "SNAPSHOT-TEST-ADA", 0.5), newer.toMap(),
+            "Expected the map to hold exactly the prices of the snapshot");
+        assertEquals(2, newer.size(), "Expected the size to count the priced assets");
+        assertTrue(newer.getVersion() > older.getVersion(),
+            "Expected the version to grow with every snapshot");
+    }
+}
@@ -0,0 +1,170 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandRequest;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandType;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ClientConnectionTest {
+
+    private final BufferPool bufferPool = new BufferPool(4096, 4);
+
+    private static String nextFrame(ClientConnection connection) {
+        CommandRequest command = connection.nextCommand();
+
+        return command == null ? null : command.toString();
+    }
+
+    private static SocketChannel channelSending(String... chunks) throws IOException {
+        byte[][] bytes = new byte[chunks.length][];
+        for (int i = 0; i < chunks.length; i++) {
+            bytes[i] = chunks[i].getBytes(StandardCharsets.UTF_8);
+        }
+
+        return channelSending(bytes);
+    }
+
+    private static SocketChannel channelSending(byte[]... chunks) throws IOException {
+        SocketChannel mockChannel = mock(SocketChannel.class);
+        int[] chunkIndex = {0};
+        ByteBuffer[] pending = {ByteBuffer.allocate(0)};
+
+        when(mockChannel.read(any(ByteBuffer.class))).thenAnswer(invocation -> {
+            if (!pending[0].hasRemaining()) {
+                if (chunkIndex[0] >= chunks.length) {
+                    return -1;
+                }
+                pending[0] = ByteBuffer.wrap(chunks[chunkIndex[0]++]);
+            }
+
+            ByteBuffer target = invocation.getArgument(0);
+            int bytes = Math.min(target.remaining(), pending[0].remaining());
+            target.put(target.position(), pending[0], pending[0].position(), bytes);
+            target.position(target.position() + bytes);
+            pending[0].position(pending[0].position() + bytes);
+            return bytes;
+        });
+
+        return mockChannel;
+    }
+
+    @Test
+    void testNextFrameKeepsPartialFrameAcrossReads() throws IOException {
+        SocketChannel mockChannel = channelSending("buy BT", "C 10\n");
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        connection.readFrom(mockChannel);
+        assertNull(nextFrame(connection),
+            "Expected no frame before the delimiter has arrived");
+
+        connection.readFrom(mockChannel);
+        assertEquals("buy BTC 10", nextFrame(connection),
+            "Expected the frame to be reassembled from both reads");
+    }
+
+    @Test
+    void testNextFrameSplitsGluedFrames() throws IOException {
+        SocketChannel mockChannel = channelSending("login test1 test\r\nhelp\nlog");
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        connection.readFrom(mockChannel);
+
+        assertEquals("login test1 test", nextFrame(connection),
+            "Expected the first frame without its delimiter");
+        assertEquals("help", nextFrame(connection),
+            "Expected the second frame");
+        assertNull(nextFrame(connection),
+            "Expected the trailing partial frame to be kept for later");
+    }
+
+    @Test
+    void testReadFromGrowsBufferForLongFrames() throws IOException {
+        String longArgument = "a".repeat(5000);
+        SocketChannel mockChannel = channelSending(longArgument.substring(0, 2048),
+            longArgument.substring(2048, 4096), longArgument.substring(4096) + "\n");
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        for (int i = 0; i < 3; i++) {
+            connection.readFrom(mockChannel);
+        }
+
+        assertEquals(longArgument, nextFrame(connection),
+            "Expected a frame longer than the initial buffer to arrive intact");
+        assertFalse(connection.isOverflowed(),
+            "Expected the connection not to be overflowed");
+    }
+
+    @Test
+    void testIsOverflowedWhenFrameExceedsLimit() throws IOException {
+        SocketChannel mockChannel = channelSending("a".repeat(64 * 1024));
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        while (!connection.isOverflowed() && connection.readFrom(mockChannel) > 0) {
+            assertNull(nextFrame(connection),
+                "Expected no frame without a delimiter");
+        }
+
+        assertTrue(connection.isOverflowed(),
+            "Expected the connection to be overflowed");
+    }
+
+    @Test
+    void testNextCommandReadsBinaryFramesAfterHandshake() throws IOException {
+        ByteBuffer frame = ByteBuffer.allocate(16)
+            .put(BinaryProtocol.HANDSHAKE)
+            .putShort((short) 13)
+            .put(CommandType.BUY.getOpcode())
+            .put((byte) 3).put("BTC".getBytes(StandardCharsets.US_ASCII))
+            .putDouble(10.5);
+        byte[] bytes = frame.array();
+        SocketChannel mockChannel = channelSending(Arrays.copyOfRange(bytes, 0, 6),
+            Arrays.copyOfRange(bytes, 6, bytes.length));
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        connection.readFrom(mockChannel);
+        assertNull(connection.nextCommand(),
+            "Expected no command before the whole binary frame has arrived");
+        assertTrue(connection.isBinary(),
+            "Expected the handshake byte to select the binary protocol");
+
+        connection.readFrom(mockChannel);
+        CommandRequest command = connection.nextCommand();
+
+        assertEquals(CommandType.BUY, command.type(),
+            "Expected the opcode to be resolved to its command");
+        assertEquals("BTC", command.argument(0),
+            "Expected the length-prefixed asset id");
+        assertEquals(10.5, command.numericArgument(1),
+            "Expected the fixed-width amount");
+        assertNull(connection.nextCommand(),
+            "Expected no further frames");
+    }
+
+    @Test
+    void testReleaseReturnsBuffersToPool() throws IOException {
+        SocketChannel mockChannel = channelSending("help\n");
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        connection.readFrom(mockChannel);
+        nextFrame(connection);
+        connection.release();
+
+        new ClientConnection(bufferPool);
+
+        assertEquals(1, bufferPool.getAllocatedBuffers(),
+            "Expected the second connection to reuse the released input buffer");
+    }
+}
@@ -0,0 +1,128 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandExecutor;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandRequest;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandResult;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandType;
+import bg.sofia.uni.fmi.mjt.wallet.crypto.database.ServerLogger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReactorTest {
+
+    private static final int LARGE_REPLY_SIZE = 2 * 1024 * 1024;
+    private static final int SMALL_BUFFER_SIZE = 4096;
+    private static final long TIMEOUT_SECONDS = 10;
+    private static final String LOGIN_FINISHED = "login finished";
+
+    private final CommandExecutor executor = mock(CommandExecutor.class);
+    private final List<String> processed = new CopyOnWriteArrayList<>();
+    private final CountDownLatch loginStarted = new CountDownLatch(1);
+    private final CountDownLatch loginMayFinish = new CountDownLatch(1);
+
+    private ExecutorService commandWorkers;
+    private ServerSocketChannel serverChannel;
+    private Reactor reactor;
+    private Thread reactorThread;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        when(executor.mayBlock(any())).thenAnswer(invocation ->
+            invocation.<CommandRequest>getArgument(0).type() == CommandType.LOGIN);
+        when(executor.process(any(), any())).thenAnswer(invocation -> {
+            CommandType type = invocation.<CommandRequest>getArgument(0).type();
+            processed.add(type.getName());
+            if (type == CommandType.HELP) {
+                return new CommandResult.Message("x".repeat(LARGE_REPLY_SIZE));
+            }
+            if (type == CommandType.LOGIN) {
+                loginStarted.countDown();
+                loginMayFinish.await();
+                processed.add(LOGIN_FINISHED);
+            }
+            return new CommandResult.Message(type.getName());
+        });
+
+        commandWorkers = Executors.newSingleThreadExecutor();
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        reactor = new Reactor(null, executor, commandWorkers, mock(ServerLogger.class));
+        reactorThread = new Thread(reactor);
+        reactorThread.start();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        loginMayFinish.countDown();
+        reactor.stop();
+        reactorThread.join();
+        commandWorkers.shutdownNow();
+        serverChannel.close();
+    }
+
+    private Socket connect() throws IOException {
+        Socket client = new Socket();
+        client.setReceiveBufferSize(SMALL_BUFFER_SIZE);
+        client.connect(serverChannel.getLocalAddress());
+
+        SocketChannel accepted = serverChannel.accept();
+        accepted.setOption(StandardSocketOptions.SO_SNDBUF, SMALL_BUFFER_SIZE);
+        accepted.configureBlocking(false);
+        reactor.register(accepted);
+
+        return client;
+    }
+
+    private boolean awaitProcessed(int count) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+        while (processed.size() < count) {
+            if (System.nanoTime() > deadline) {
+                return false;
+            }
+            Thread.sleep(10);
+        }
+
+        return true;
+    }
+
+    @Test
+    void testLoginFinishingAfterClientLeftIsLoggedOut() throws Exception {
+        Socket client = connect();
+        OutputStream out = client.getOutputStream();
+        out.write("help\nlogin user password\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        assertTrue(loginStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        // resetting the connection fails the pending reply while the login is still running
+        client.setSoLinger(true, 0);
+        client.close();
+        assertTrue(awaitProcessed(3), "The reactor should notice the client has gone: " + processed);
+
+        loginMayFinish.countDown();
+        assertTrue(awaitProcessed(5), "The late login should be followed by a disconnect: " + processed);
+        assertEquals(List.of("help", "login", "disconnect", LOGIN_FINISHED, "disconnect"), processed);
+    }
+}
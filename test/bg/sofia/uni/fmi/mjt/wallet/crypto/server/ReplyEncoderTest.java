@@ -0,0 +1,112 @@
+package bg.sofia.uni.fmi.mjt.wallet.crypto.server;
+
+import bg.sofia.uni.fmi.mjt.wallet.crypto.command.CommandResult;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ReplyEncoderTest {
+
+    private static final int POOLED_BUFFER_SIZE = 64;
+
+    private final BufferPool bufferPool = new BufferPool(POOLED_BUFFER_SIZE, 16);
+    private final ReplyEncoder encoder = new ReplyEncoder(bufferPool);
+
+    private static byte[] flush(ClientConnection connection) throws IOException {
+        ByteArrayOutputStream written = new ByteArrayOutputStream();
+        SocketChannel mockChannel = mock(SocketChannel.class);
+
+        when(mockChannel.write(any(ByteBuffer[].class), anyInt(), anyInt())).thenAnswer(invocation -> {
+            ByteBuffer[] buffers = invocation.getArgument(0);
+            int offset = invocation.getArgument(1);
+            int length = invocation.getArgument(2);
+
+            long total = 0;
+            for (int i = offset; i < offset + length; i++) {
+                while (buffers[i].hasRemaining()) {
+                    written.write(buffers[i].get());
+                    total++;
+                }
+            }
+            return total;
+        });
+
+        connection.flushTo(mockChannel);
+        return written.toByteArray();
+    }
+
+    @Test
+    void testEncodeSpansSeveralPooledBuffers() throws IOException {
+        String reply = "Current balance: 10.00 ".repeat(20) + "₿";
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        encoder.encode(reply, connection);
+        ByteBuffer written = ByteBuffer.wrap(flush(connection));
+
+        byte[] expected = reply.getBytes(StandardCharsets.UTF_8);
+        assertEquals(expected.length, written.getInt(),
+            "Expected the length prefix to hold the encoded reply size");
+
+        byte[] body = new byte[written.remaining()];
+        written.get(body);
+        assertEquals(reply, new String(body, StandardCharsets.UTF_8),
+            "Expected the reply to arrive intact across buffer boundaries");
+    }
+
+    @Test
+    void testEncodeReusesBuffersInSteadyState() throws IOException {
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        encoder.encode("Deposited successfully", connection);
+        flush(connection);
+        long allocatedAfterWarmUp = bufferPool.getAllocatedBuffers();
+
+        for (int i = 0; i < 100; i++) {
+            encoder.encode("Deposited successfully", connection);
+            flush(connection);
+        }
+
+        assertEquals(allocatedAfterWarmUp, bufferPool.getAllocatedBuffers(),
+            "Expected no buffer allocations once the pool is warm");
+    }
+
+    @Test
+    void testEncodeBinaryOfferingsRecord() throws IOException {
+        Map<String, Double> prices = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            prices.put("ASSET" + i, i + 0.25);
+        }
+        ClientConnection connection = new ClientConnection(bufferPool);
+
+        encoder.encode(new CommandResult.Offerings(prices), connection);
+        ByteBuffer written = ByteBuffer.wrap(flush(connection));
+
+        assertEquals(written.remaining() - Integer.BYTES, written.getInt(),
+            "Expected the length prefix to hold the record size");
+        assertEquals(BinaryProtocol.OFFERINGS, written.get(),
+            "Expected an offerings record");
+        assertEquals(prices.size(), written.getShort(),
+            "Expected the number of offerings");
+
+        for (var entry : prices.entrySet()) {
+            byte[] assetId = new byte[written.getShort()];
+            written.get(assetId);
+            assertEquals(entry.getKey(), new String(assetId, StandardCharsets.UTF_8),
+                "Expected the length-prefixed asset id");
+            assertEquals(entry.getValue(), written.getDouble(),
+                "Expected the price as a fixed-width number");
+        }
+    }
+}